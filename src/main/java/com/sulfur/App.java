@@ -1,10 +1,19 @@
 package com.sulfur;
 
+import com.sulfur.cli.BatchCommand;
 import com.sulfur.rpc.DiscordService;
 import com.sulfur.ui.MainWindow;
 
+import java.util.Arrays;
+
 public class App {
     public static void main(String[] args) {
+        // headless batch mode, no window and no discord
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(BatchCommand.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
         // register shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             DiscordService.getInstance().shutdown();
@@ -12,4 +21,4 @@ public class App {
         
         MainWindow.launch();
     }
-}
\ No newline at end of file
+}
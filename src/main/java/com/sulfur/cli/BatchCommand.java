@@ -0,0 +1,161 @@
+package com.sulfur.cli;
+
+import com.sulfur.config.AppSettings;
+import com.sulfur.core.BatchDecompiler;
+import com.sulfur.core.DecompilerService;
+import com.sulfur.core.DiskSourceCache;
+import com.sulfur.core.IndexSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code sulfur --batch [options] <jar>...}, decompiles whole archives without opening a window.
+ */
+public class BatchCommand {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: sulfur --batch [options] <jar|war|jmod|dir>...",
+            "  -o, --output <dir>     where sources go, one folder or zip per archive (default: .)",
+            "  --zip                  write <name>-sources.zip instead of a source tree",
+            "  --profile <name>       start from a saved decompiler profile",
+            "  --cfr, --procyon       decompiler backend",
+            "  --zkm, --allatori      string deobfuscation",
+            "  -t, --threads <n>      worker threads (default: number of cores)",
+            "  --cache                reuse and fill the on-disk source cache",
+            "  --snapshots            reuse and write index snapshots, like the window does");
+
+    /**
+     * @return the process exit code: 0 if every archive was decompiled, 1 if one could not be
+     *         read, 2 for bad arguments. Classes that failed to decompile are only counted.
+     */
+    public static int run(String[] args) {
+        AppSettings settings = AppSettings.loadSettings();
+        Path output = Paths.get(".");
+        boolean zip = false;
+        boolean cache = settings.isDiskSourceCache();
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> archives = new ArrayList<>();
+        String profile = null;
+        Boolean cfr = null;
+        boolean zkm = false;
+        boolean allatori = false;
+        boolean snapshots = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "-o", "--output" -> output = Paths.get(value(args, ++i, arg));
+                    case "--zip" -> zip = true;
+                    case "--profile" -> profile = value(args, ++i, arg);
+                    case "--cfr" -> cfr = true;
+                    case "--procyon" -> cfr = false;
+                    case "--zkm" -> zkm = true;
+                    case "--allatori" -> allatori = true;
+                    case "-t", "--threads" -> threads = Integer.parseInt(value(args, ++i, arg));
+                    case "--cache" -> cache = true;
+                    case "--snapshots" -> snapshots = true;
+                    case "-h", "--help" -> {
+                        System.out.println(USAGE);
+                        return 0;
+                    }
+                    default -> {
+                        if (arg.startsWith("-")) throw new IllegalArgumentException("unknown option " + arg);
+                        archives.add(Paths.get(arg));
+                    }
+                }
+            }
+            if (archives.isEmpty()) throw new IllegalArgumentException("no archives given");
+            if (threads < 1) throw new IllegalArgumentException("need at least one thread");
+            // the profile goes first, whatever the order on the command line, flags then change it
+            if (profile != null) useProfile(settings, profile);
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException is one too
+            System.err.println("[!] " + e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        if (cfr != null) settings.setUseCfrDecompiler(cfr);
+        if (zkm) settings.setZkmDeobfuscation(true);
+        if (allatori) settings.setAllatoriDeobfuscation(true);
+
+        // a CI run should not leave index snapshots behind in the user's cache
+        if (!snapshots) {
+            IndexSnapshot.setDirectory(null);
+        }
+
+        if (cache) {
+            try {
+                DecompilerService.setDiskCache(new DiskSourceCache(AppSettings.getCacheDirectory().resolve("sources"),
+                        settings.getDiskSourceCacheMb() * 1024L * 1024L));
+            } catch (IOException e) {
+                System.err.println("[!] Could not open the source cache, going on without it: " + e.getMessage());
+            }
+        }
+
+        System.out.println("[!] Decompiling " + archives.size() + " archives with " + (settings.isUseCfrDecompiler() ? "CFR" : "Procyon")
+                + " on " + threads + " threads" + (settings.isZkmDeobfuscation() ? ", ZKM" : "")
+                + (settings.isAllatoriDeobfuscation() ? ", Allatori" : ""));
+
+        BatchDecompiler decompiler = new BatchDecompiler(settings, threads);
+        int exitCode = 0;
+        int classes = 0;
+        int failures = 0;
+        long nanos = 0;
+        for (Path archive : archives) {
+            String name = archive.getFileName().toString();
+            String base = Files.isDirectory(archive) || name.lastIndexOf('.') < 0 ? name : name.substring(0, name.lastIndexOf('.'));
+            Path target = output.resolve(zip ? base + "-sources.zip" : base);
+            try {
+                BatchDecompiler.Summary summary = decompiler.decompile(archive, target, zip);
+                System.out.println("[!] " + summary + " -> " + target);
+                for (String slow : summary.getSlowest()) {
+                    System.out.println("      " + slow);
+                }
+                classes += summary.getClasses();
+                failures += summary.getFailures();
+                nanos += summary.getNanos();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[!] Failed to decompile " + archive + ": " + e.getMessage());
+                exitCode = 1;
+            }
+        }
+
+        double seconds = Math.max(nanos / 1e9, 1e-3);
+        System.out.println("[!] Total: " + classes + " classes in " + String.format("%.1f", seconds) + "s ("
+                + String.format("%.1f", classes / seconds) + " classes/s), " + failures + " failed");
+
+        // the caller exits right after, which would drop whatever the cache has not written yet
+        DiskSourceCache diskCache = DecompilerService.getDiskCache();
+        if (diskCache != null) {
+            try {
+                diskCache.flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("[!] Interrupted while writing the source cache");
+            }
+        }
+        return exitCode;
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) throw new IllegalArgumentException(option + " needs a value");
+        return args[i];
+    }
+
+    private static void useProfile(AppSettings settings, String name) {
+        for (AppSettings.DecompilerProfile profile : settings.getDecompilerProfiles()) {
+            if (profile.getName().equalsIgnoreCase(name) || profile.getId().equals(name)) {
+                settings.setActiveProfile(profile.getId());
+                return;
+            }
+        }
+        throw new IllegalArgumentException("no decompiler profile named " + name);
+    }
+}
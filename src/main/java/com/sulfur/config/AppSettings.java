@@ -4,6 +4,7 @@ import com.sulfur.ui.theme.ThemeManager.Theme;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.nio.file.Path;
 import java.util.Properties;
 import java.util.Map;
 import java.util.HashMap;
@@ -19,12 +20,47 @@ public class AppSettings {
     private static final String DISCORD_RPC_KEY = "discordRichPresence";
     private static final String PROFILE_COUNT_KEY = "decompilerProfileCount";
     private static final String ACTIVE_PROFILE_ID_KEY = "activeDecompilerProfileId";
+    private static final String PRELOAD_CLASSES_KEY = "preloadClasses";
+    private static final String PRELOAD_BUDGET_MB_KEY = "preloadBudgetMb";
+    private static final String CLASS_CACHE_MB_KEY = "classCacheMb";
+    private static final String SOURCE_CACHE_MB_KEY = "sourceCacheMb";
+    private static final String RESULT_CACHE_MB_KEY = "decompilationCacheMb";
+    private static final String DISK_SOURCE_CACHE_KEY = "diskSourceCache";
+    private static final String BACKGROUND_DECOMPILATION_KEY = "backgroundDecompilation";
+    private static final String DECOMPILE_TIMEOUT_KEY = "decompileTimeoutSeconds";
+    private static final String PREFETCH_DEPTH_KEY = "prefetchDepth";
+    private static final String RACE_DECOMPILERS_KEY = "raceDecompilers";
+    private static final String PREFETCH_CPU_PERCENT_KEY = "prefetchCpuPercent";
+    private static final String DISK_SOURCE_CACHE_MB_KEY = "diskSourceCacheMb";
+    private static final String OFF_HEAP_STORE_MB_KEY = "offHeapStoreMb";
+    private static final String TARGET_RELEASE_KEY = "targetRelease";
 
     private boolean useCfrDecompiler;
     private Theme theme;
     private boolean zkmDeobfuscation;
     private boolean allatoriDeobfuscation;
     private boolean discordRichPresence;
+    private boolean preloadClasses = false;
+    private int preloadBudgetMb = 512;
+    private int classCacheMb = 256;
+    private int sourceCacheMb = 128;
+    // sources kept per class bytes, backend and options, so switching between them is instant
+    private int resultCacheMb = 64;
+    // decompiled sources kept on disk between sessions, off unless asked for
+    private boolean diskSourceCache = false;
+    private int diskSourceCacheMb = 512;
+    private boolean backgroundDecompilation = false;
+    // time a single class may take to decompile before its bytecode is shown instead, 0 waits forever
+    private int decompileTimeoutSeconds = 15;
+    // how many references away from the open class to decompile ahead of time, 0 turns it off
+    private int prefetchDepth = 1;
+    // share of one core the prefetcher may use
+    private int prefetchCpuPercent = 25;
+    // decompile the selected class with procyon and cfr at once and show whichever is done first
+    private boolean raceDecompilers = false;
+    private int offHeapStoreMb = 2048;
+    // release used to pick classes out of multi-release jars, 0 means the running JVM's
+    private int targetRelease = 0;
 
     private Map<String, DecompilerProfile> decompilerProfiles;
     private String activeDecompilerProfileId;
@@ -39,6 +75,30 @@ public class AppSettings {
         applyProfileSettings(defaultProfile);
     }
 
+    /**
+     * @return the directory the settings file lives in, other state kept by sulfur goes next to it
+     */
+    public static Path getSettingsDirectory() {
+        return new File(SETTINGS_FILE).getAbsoluteFile().toPath().getParent();
+    }
+
+    /**
+     * @return the per-user cache directory for sulfur, following the conventions of the platform
+     */
+    public static Path getCacheDirectory() {
+        String os = System.getProperty("os.name", "").toLowerCase();
+        Path home = Path.of(System.getProperty("user.home"));
+        if (os.contains("win")) {
+            String local = System.getenv("LOCALAPPDATA");
+            return (local != null ? Path.of(local) : home.resolve("AppData").resolve("Local")).resolve("Sulfur").resolve("cache");
+        }
+        if (os.contains("mac")) {
+            return home.resolve("Library").resolve("Caches").resolve("sulfur");
+        }
+        String xdg = System.getenv("XDG_CACHE_HOME");
+        return (xdg != null && !xdg.isEmpty() ? Path.of(xdg) : home.resolve(".cache")).resolve("sulfur");
+    }
+
     public static AppSettings loadSettings() {
         AppSettings settings = new AppSettings();
         Properties props = new Properties();
@@ -71,6 +131,21 @@ public class AppSettings {
 
                     settings.activeDecompilerProfileId = props.getProperty(ACTIVE_PROFILE_ID_KEY, settings.decompilerProfiles.keySet().iterator().next());
                     settings.applyProfileSettings(settings.decompilerProfiles.get(settings.activeDecompilerProfileId));
+
+                    settings.preloadClasses = Boolean.parseBoolean(props.getProperty(PRELOAD_CLASSES_KEY, "false"));
+                    settings.preloadBudgetMb = Integer.parseInt(props.getProperty(PRELOAD_BUDGET_MB_KEY, "512"));
+                    settings.classCacheMb = Integer.parseInt(props.getProperty(CLASS_CACHE_MB_KEY, "256"));
+                    settings.sourceCacheMb = Integer.parseInt(props.getProperty(SOURCE_CACHE_MB_KEY, "128"));
+                    settings.resultCacheMb = Integer.parseInt(props.getProperty(RESULT_CACHE_MB_KEY, "64"));
+                    settings.diskSourceCache = Boolean.parseBoolean(props.getProperty(DISK_SOURCE_CACHE_KEY, "false"));
+                    settings.diskSourceCacheMb = Integer.parseInt(props.getProperty(DISK_SOURCE_CACHE_MB_KEY, "512"));
+                    settings.backgroundDecompilation = Boolean.parseBoolean(props.getProperty(BACKGROUND_DECOMPILATION_KEY, "false"));
+                    settings.decompileTimeoutSeconds = Integer.parseInt(props.getProperty(DECOMPILE_TIMEOUT_KEY, "15"));
+                    settings.prefetchDepth = Integer.parseInt(props.getProperty(PREFETCH_DEPTH_KEY, "1"));
+                    settings.raceDecompilers = Boolean.parseBoolean(props.getProperty(RACE_DECOMPILERS_KEY, "false"));
+                    settings.prefetchCpuPercent = Integer.parseInt(props.getProperty(PREFETCH_CPU_PERCENT_KEY, "25"));
+                    settings.offHeapStoreMb = Integer.parseInt(props.getProperty(OFF_HEAP_STORE_MB_KEY, "2048"));
+                    settings.targetRelease = Integer.parseInt(props.getProperty(TARGET_RELEASE_KEY, "0"));
                 }
             }
         } catch (Exception e) {
@@ -89,6 +164,20 @@ public class AppSettings {
         props.setProperty(ZKM_DEOBFUSCATION_KEY, Boolean.toString(zkmDeobfuscation));
         props.setProperty(ALLATORI_DEOBFUSCATION_KEY, Boolean.toString(allatoriDeobfuscation));
         props.setProperty(DISCORD_RPC_KEY, Boolean.toString(discordRichPresence));
+        props.setProperty(PRELOAD_CLASSES_KEY, Boolean.toString(preloadClasses));
+        props.setProperty(PRELOAD_BUDGET_MB_KEY, Integer.toString(preloadBudgetMb));
+        props.setProperty(CLASS_CACHE_MB_KEY, Integer.toString(classCacheMb));
+        props.setProperty(SOURCE_CACHE_MB_KEY, Integer.toString(sourceCacheMb));
+        props.setProperty(RESULT_CACHE_MB_KEY, Integer.toString(resultCacheMb));
+        props.setProperty(DISK_SOURCE_CACHE_KEY, Boolean.toString(diskSourceCache));
+        props.setProperty(DISK_SOURCE_CACHE_MB_KEY, Integer.toString(diskSourceCacheMb));
+        props.setProperty(BACKGROUND_DECOMPILATION_KEY, Boolean.toString(backgroundDecompilation));
+        props.setProperty(DECOMPILE_TIMEOUT_KEY, Integer.toString(decompileTimeoutSeconds));
+        props.setProperty(PREFETCH_DEPTH_KEY, Integer.toString(prefetchDepth));
+        props.setProperty(RACE_DECOMPILERS_KEY, Boolean.toString(raceDecompilers));
+        props.setProperty(PREFETCH_CPU_PERCENT_KEY, Integer.toString(prefetchCpuPercent));
+        props.setProperty(OFF_HEAP_STORE_MB_KEY, Integer.toString(offHeapStoreMb));
+        props.setProperty(TARGET_RELEASE_KEY, Integer.toString(targetRelease));
 
         // save profiles
         props.setProperty(PROFILE_COUNT_KEY, String.valueOf(decompilerProfiles.size()));
@@ -152,6 +241,118 @@ public class AppSettings {
         this.discordRichPresence = discordRichPresence;
     }
 
+    public boolean isPreloadClasses() {
+        return preloadClasses;
+    }
+
+    public void setPreloadClasses(boolean preloadClasses) {
+        this.preloadClasses = preloadClasses;
+    }
+
+    public int getPreloadBudgetMb() {
+        return preloadBudgetMb;
+    }
+
+    public void setPreloadBudgetMb(int preloadBudgetMb) {
+        this.preloadBudgetMb = preloadBudgetMb;
+    }
+
+    public int getTargetRelease() {
+        return targetRelease;
+    }
+
+    public void setTargetRelease(int targetRelease) {
+        this.targetRelease = targetRelease;
+    }
+
+    public int getClassCacheMb() {
+        return classCacheMb;
+    }
+
+    public void setClassCacheMb(int classCacheMb) {
+        this.classCacheMb = classCacheMb;
+    }
+
+    public int getSourceCacheMb() {
+        return sourceCacheMb;
+    }
+
+    public void setSourceCacheMb(int sourceCacheMb) {
+        this.sourceCacheMb = sourceCacheMb;
+    }
+
+    public int getResultCacheMb() {
+        return resultCacheMb;
+    }
+
+    public void setResultCacheMb(int resultCacheMb) {
+        this.resultCacheMb = resultCacheMb;
+    }
+
+    public boolean isDiskSourceCache() {
+        return diskSourceCache;
+    }
+
+    public void setDiskSourceCache(boolean diskSourceCache) {
+        this.diskSourceCache = diskSourceCache;
+    }
+
+    public int getDecompileTimeoutSeconds() {
+        return decompileTimeoutSeconds;
+    }
+
+    public void setDecompileTimeoutSeconds(int decompileTimeoutSeconds) {
+        this.decompileTimeoutSeconds = decompileTimeoutSeconds;
+    }
+
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    public void setPrefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    public int getPrefetchCpuPercent() {
+        return prefetchCpuPercent;
+    }
+
+    public void setPrefetchCpuPercent(int prefetchCpuPercent) {
+        this.prefetchCpuPercent = prefetchCpuPercent;
+    }
+
+    public boolean isRaceDecompilers() {
+        return raceDecompilers;
+    }
+
+    public void setRaceDecompilers(boolean raceDecompilers) {
+        this.raceDecompilers = raceDecompilers;
+    }
+
+    public boolean isBackgroundDecompilation() {
+        return backgroundDecompilation;
+    }
+
+    public void setBackgroundDecompilation(boolean backgroundDecompilation) {
+        this.backgroundDecompilation = backgroundDecompilation;
+    }
+
+    public int getDiskSourceCacheMb() {
+        return diskSourceCacheMb;
+    }
+
+    public void setDiskSourceCacheMb(int diskSourceCacheMb) {
+        this.diskSourceCacheMb = diskSourceCacheMb;
+    }
+
+    public int getOffHeapStoreMb() {
+        return offHeapStoreMb;
+    }
+
+    public void setOffHeapStoreMb(int offHeapStoreMb) {
+        this.offHeapStoreMb = offHeapStoreMb;
+    }
+
     public Theme getTheme() {
         return theme;
     }
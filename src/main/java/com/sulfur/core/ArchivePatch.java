@@ -0,0 +1,187 @@
+package com.sulfur.core;
+
+import com.sulfur.core.archive.MappedZipReader;
+import com.sulfur.core.archive.ZipWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Overlay archives holding only the classes that were edited, so a patch to a large jar can be
+ * shipped without the jar. Classes of nested jars are stored as {@code library!/entry}. A manifest
+ * records the CRC every patched entry had in the base archive ("new" for added classes), which
+ * is checked before the patch is applied.
+ */
+public class ArchivePatch {
+    public static final String MANIFEST_NAME = "META-INF/sulfur-patch.properties";
+    private static final String NESTED_SEPARATOR = "!/";
+    private static final String NEW_ENTRY = "new";
+
+    static void write(JarIndex index, Path output) throws IOException {
+        Map<String, byte[]> replacements = new HashMap<>();
+        Map<String, Map<String, byte[]>> nestedReplacements = new HashMap<>();
+        index.collectEdits(replacements, nestedReplacements);
+
+        MappedZipReader base = MappedZipReader.open(index.getJarPath());
+        Properties manifest = new Properties();
+        manifest.setProperty("base", index.getJarPath().getFileName().toString());
+        manifest.setProperty("baseDigest", HexFormat.of().formatHex(base.getCentralDirectory().getDigest()));
+
+        // patch entry name -> bytes, in the order the manifest lists them
+        List<String> names = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (Map.Entry<String, byte[]> edit : replacements.entrySet()) {
+            addEntry(manifest, names.size(), null, edit.getKey(), base);
+            names.add(edit.getKey());
+            contents.add(edit.getValue());
+        }
+        for (Map.Entry<String, Map<String, byte[]>> library : nestedReplacements.entrySet()) {
+            MappedZipReader nested = new MappedZipReader(base.readEntryBuffer(library.getKey()));
+            for (Map.Entry<String, byte[]> edit : library.getValue().entrySet()) {
+                addEntry(manifest, names.size(), library.getKey(), edit.getKey(), nested);
+                names.add(library.getKey() + NESTED_SEPARATOR + edit.getKey());
+                contents.add(edit.getValue());
+            }
+        }
+        manifest.setProperty("patch.count", Integer.toString(names.size()));
+
+        ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+        manifest.store(manifestBytes, "sulfur patch");
+        writeAtomically(output, zip -> {
+            zip.writeDeflated(MANIFEST_NAME, manifestBytes.toByteArray());
+            for (int i = 0; i < names.size(); i++) {
+                zip.writeDeflated(names.get(i), contents.get(i));
+            }
+        });
+    }
+
+    private static void addEntry(Properties manifest, int i, String library, String entryName, MappedZipReader original) throws IOException {
+        manifest.setProperty("patch." + i + ".entry", entryName);
+        if (library != null) {
+            manifest.setProperty("patch." + i + ".library", library);
+        }
+        manifest.setProperty("patch." + i + ".crc",
+                original.hasEntry(entryName) ? Integer.toHexString(original.entryCrc(entryName)) : NEW_ENTRY);
+    }
+
+    /**
+     * Merges a patch onto its base archive. Every entry is copied still compressed, from the
+     * patch where it has one and from the base otherwise; only patched nested jars are rebuilt.
+     *
+     * @throws IOException if an entry the patch replaces differs from the one it was made against
+     */
+    public static void apply(Path basePath, Path patchPath, Path output) throws IOException {
+        MappedZipReader base = MappedZipReader.open(basePath);
+        MappedZipReader patch = MappedZipReader.open(patchPath);
+        if (!patch.hasEntry(MANIFEST_NAME)) {
+            throw new IOException("[!] Not a sulfur patch: " + patchPath.getFileName());
+        }
+        Properties manifest = new Properties();
+        manifest.load(new ByteArrayInputStream(patch.readEntry(MANIFEST_NAME)));
+
+        // nested jar -> (entry -> patch entry)
+        Set<String> patched = new HashSet<>();
+        Map<String, Map<String, String>> nestedPatched = new HashMap<>();
+        Map<String, MappedZipReader> nestedBases = new HashMap<>();
+        // an identical central directory means identical entries, no need to check them one by one
+        boolean sameBase = HexFormat.of().formatHex(base.getCentralDirectory().getDigest())
+                .equals(manifest.getProperty("baseDigest"));
+
+        int count = Integer.parseInt(manifest.getProperty("patch.count", "0"));
+        for (int i = 0; i < count; i++) {
+            String entryName = manifest.getProperty("patch." + i + ".entry");
+            String library = manifest.getProperty("patch." + i + ".library");
+            String crc = manifest.getProperty("patch." + i + ".crc");
+            MappedZipReader original = base;
+            if (library != null) {
+                if (!base.hasEntry(library)) {
+                    throw new IOException("[!] Patch targets nested jar missing from " + basePath.getFileName() + ": " + library);
+                }
+                original = nestedBases.get(library);
+                if (original == null) {
+                    original = new MappedZipReader(base.readEntryBuffer(library));
+                    nestedBases.put(library, original);
+                }
+                nestedPatched.computeIfAbsent(library, k -> new HashMap<>()).put(entryName, library + NESTED_SEPARATOR + entryName);
+            } else {
+                patched.add(entryName);
+            }
+            if (!sameBase && !NEW_ENTRY.equals(crc)
+                    && (!original.hasEntry(entryName) || original.entryCrc(entryName) != Integer.parseUnsignedInt(crc, 16))) {
+                throw new IOException("[!] " + basePath.getFileName() + " does not match the archive this patch was made for ("
+                        + (library != null ? library + NESTED_SEPARATOR : "") + entryName + " differs)");
+            }
+        }
+
+        writeAtomically(output, zip -> {
+            for (String entryName : base.entryNames()) {
+                Map<String, String> nestedEdits = nestedPatched.get(entryName);
+                if (nestedEdits != null) {
+                    MappedZipReader nested = nestedBases.get(entryName);
+                    ByteArrayOutputStream nestedOut = new ByteArrayOutputStream();
+                    try (ZipWriter nestedZip = new ZipWriter(Channels.newChannel(nestedOut))) {
+                        merge(nested, patch, nestedEdits, nestedZip);
+                    }
+                    // launchers like Spring Boot's need nested jars uncompressed
+                    zip.writeStored(entryName, nestedOut.toByteArray());
+                } else {
+                    zip.copyFrom(patched.contains(entryName) ? patch : base, entryName);
+                }
+            }
+            for (String entryName : patched) {
+                if (!base.hasEntry(entryName)) {
+                    zip.copyFrom(patch, entryName);
+                }
+            }
+        });
+    }
+
+    private static void merge(MappedZipReader base, MappedZipReader patch, Map<String, String> edits, ZipWriter zip) throws IOException {
+        for (String entryName : base.entryNames()) {
+            copy(edits.containsKey(entryName) ? patch : base, edits.getOrDefault(entryName, entryName), entryName, zip);
+        }
+        for (Map.Entry<String, String> edit : edits.entrySet()) {
+            if (!base.hasEntry(edit.getKey())) {
+                copy(patch, edit.getValue(), edit.getKey(), zip);
+            }
+        }
+    }
+
+    private static void copy(MappedZipReader from, String fromName, String toName, ZipWriter zip) throws IOException {
+        zip.writeRaw(toName, from.entryMethod(fromName), from.entryDosTime(fromName), from.entryCrc(fromName),
+                from.entrySize(fromName), from.rawEntryData(fromName));
+    }
+
+    private interface ZipContent {
+        void write(ZipWriter zip) throws IOException;
+    }
+
+    private static void writeAtomically(Path output, ZipContent content) throws IOException {
+        Path target = output.toAbsolutePath();
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 ZipWriter zip = new ZipWriter(channel)) {
+                content.write(zip);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
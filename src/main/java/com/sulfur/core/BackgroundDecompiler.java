@@ -0,0 +1,246 @@
+package com.sulfur.core;
+
+import com.sulfur.config.AppSettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decompiles every class of a {@link ClassPath} on a small pool of worker threads, so the
+ * decompiled code caches (and with them {@link UsageAnalyzer}) cover the whole archive rather
+ * than just the classes that were clicked.
+ *
+ * Classes the user asks for go first, through {@link #decompile} or {@link #prioritize}. The
+ * workers back off for a moment whenever the user does something, so the UI stays responsive.
+ */
+public class BackgroundDecompiler {
+
+    public interface ProgressListener {
+        void onProgress(int done, int total, double classesPerSecond);
+    }
+
+    private static final int STOP = -1;
+    private static final int URGENT = 0;
+    private static final int NORMAL = 1;
+    // how long the workers stay off the CPU after the last user activity
+    private static final long BUSY_BACKOFF_MILLIS = 750;
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private static final class Task implements Comparable<Task> {
+        final String className;
+        final int priority;
+        final long order;
+
+        Task(String className, int priority, long order) {
+            this.className = className;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) return Integer.compare(priority, other.priority);
+            return Long.compare(order, other.order);
+        }
+    }
+
+    private final ClassPath classPath;
+    private final AppSettings settings;
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>();
+    // sorts before everything else, a worker that takes it puts it back for the next one and stops
+    private final Task poison = new Task(null, STOP, 0);
+    // normal tasks count up, urgent ones count down so the latest request is taken first
+    private final AtomicLong sequence = new AtomicLong();
+    // decompiled successfully, failed classes stay out so asking for them again retries them
+    private final Set<String> finished = ConcurrentHashMap.newKeySet();
+    // tried at least once, what the progress counts
+    private final Set<String> attempted = ConcurrentHashMap.newKeySet();
+    // classes some thread is decompiling right now, anyone else asking for them waits on it
+    private final Map<String, CompletableFuture<String>> running = new ConcurrentHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicLong lastReport = new AtomicLong();
+    private final Object pauseLock = new Object();
+    private final int total;
+    private final int threads;
+
+    private volatile ProgressListener listener;
+    private volatile boolean paused;
+    private volatile boolean cancelled;
+    private volatile long busyUntil;
+    private long startNanos;
+
+    public BackgroundDecompiler(ClassPath classPath, AppSettings settings) {
+        this(classPath, settings, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public BackgroundDecompiler(ClassPath classPath, AppSettings settings, int threads) {
+        this.classPath = classPath;
+        this.settings = settings;
+        this.threads = threads;
+        for (String className : classPath.classNames()) {
+            queue.add(new Task(className, NORMAL, sequence.incrementAndGet()));
+        }
+        this.total = queue.size();
+    }
+
+    public synchronized void start(ProgressListener listener) {
+        if (!workers.isEmpty()) return;
+        this.listener = listener;
+        startNanos = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "sulfur-background-decompiler-" + i);
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Decompiles a class on the calling thread, ahead of everything queued. If a worker is
+     * already on it, waits for that result instead of decompiling it twice.
+     */
+    public String decompile(String className) throws Exception {
+        noteUserActivity();
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> other = running.putIfAbsent(className, mine);
+        if (other != null) {
+            try {
+                return other.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+        return run(className, mine);
+    }
+
+    /**
+     * Moves a class to the front of the queue, without waiting for it.
+     */
+    public void prioritize(String className) {
+        if (finished.contains(className)) return;
+        queue.add(new Task(className, URGENT, -sequence.incrementAndGet()));
+    }
+
+    /**
+     * Tells the workers the user is doing something, they hold off on queued work for a moment.
+     */
+    public void noteUserActivity() {
+        busyUntil = System.currentTimeMillis() + BUSY_BACKOFF_MILLIS;
+    }
+
+    public void setPaused(boolean paused) {
+        synchronized (pauseLock) {
+            this.paused = paused;
+            pauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        queue.clear();
+        queue.add(poison);
+        setPaused(false);
+    }
+
+    public int getDone() {
+        return done.get();
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public boolean isFinished() {
+        return done.get() >= total;
+    }
+
+    private void work() {
+        try {
+            while (!cancelled) {
+                // the workers stay around once the queue is empty, for classes prioritized later
+                Task task = queue.take();
+                if (task == poison) {
+                    queue.add(poison);
+                    break;
+                }
+                waitWhilePaused();
+                if (task.priority != URGENT) {
+                    waitWhileBusy();
+                }
+                if (cancelled) break;
+                if (finished.contains(task.className)) continue;
+                CompletableFuture<String> mine = new CompletableFuture<>();
+                if (running.putIfAbsent(task.className, mine) != null) continue;
+                try {
+                    run(task.className, mine);
+                } catch (Exception e) {
+                    // the index gets closed under us when another jar is opened
+                    if (cancelled) break;
+                    System.err.println("[!] Background decompilation of " + task.className + " failed: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void waitWhilePaused() throws InterruptedException {
+        synchronized (pauseLock) {
+            while (paused && !cancelled) {
+                pauseLock.wait();
+            }
+        }
+    }
+
+    private void waitWhileBusy() throws InterruptedException {
+        long wait;
+        while (!cancelled && (wait = busyUntil - System.currentTimeMillis()) > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    private String run(String className, CompletableFuture<String> future) throws Exception {
+        try {
+            String source = settings.isUseCfrDecompiler()
+                    ? DecompilerService.decompileWithCFR(classPath, className, settings)
+                    : DecompilerService.decompile(classPath, className, settings);
+            finished.add(className);
+            future.complete(source);
+            return source;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            running.remove(className, future);
+            if (attempted.add(className)) {
+                report(done.incrementAndGet());
+            }
+        }
+    }
+
+    private void report(int n) {
+        ProgressListener current = listener;
+        if (current == null || cancelled) return;
+        long now = System.nanoTime();
+        long last = lastReport.get();
+        // the listener usually hops onto the EDT, a few updates a second are plenty
+        if (n < total && (now - last < REPORT_INTERVAL_NANOS || !lastReport.compareAndSet(last, now))) return;
+        double seconds = Math.max(1e-3, (now - startNanos) / 1e9);
+        current.onProgress(n, total, n / seconds);
+    }
+}
@@ -0,0 +1,359 @@
+package com.sulfur.core;
+
+import com.sulfur.config.AppSettings;
+import com.sulfur.core.archive.ParallelZipWriter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decompiles every class of an archive on a fixed number of threads, without any UI, and streams
+ * the sources into a directory tree or a sources zip. Workers hand finished sources to a single
+ * writer through a bounded queue, so a slow disk holds the workers back instead of piling sources
+ * up in memory.
+ */
+public class BatchDecompiler {
+    // classes handed to CFR per driver session, see DecompilerService#decompileAllWithCFR
+    private static final int CFR_BATCH = 16;
+    private static final int SLOWEST_KEPT = 10;
+    private static final Source END = new Source(null, null);
+    // how often a worker blocked on a full queue checks that the writer is still alive
+    private static final long OFFER_INTERVAL_MILLIS = 100;
+
+    private final AppSettings settings;
+    private final int threads;
+    private final int queueCapacity;
+
+    private static final class Source {
+        final String entryName;
+        final String text;
+
+        Source(String entryName, String text) {
+            this.entryName = entryName;
+            this.text = text;
+        }
+    }
+
+    /**
+     * What one archive took, printed at the end of a run.
+     */
+    public static final class Summary {
+        private final Path archive;
+        private final int classes;
+        private final int failures;
+        private final long nanos;
+        private final List<String> slowest;
+
+        Summary(Path archive, int classes, int failures, long nanos, List<String> slowest) {
+            this.archive = archive;
+            this.classes = classes;
+            this.failures = failures;
+            this.nanos = nanos;
+            this.slowest = slowest;
+        }
+
+        public int getClasses() {
+            return classes;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the slowest classes with their time, slowest first
+         */
+        public List<String> getSlowest() {
+            return slowest;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = nanos / 1e9;
+            return archive.getFileName() + ": " + classes + " classes in " + String.format("%.1f", seconds) + "s ("
+                    + String.format("%.1f", classes / Math.max(seconds, 1e-3)) + " classes/s), " + failures + " failed";
+        }
+    }
+
+    public BatchDecompiler(AppSettings settings, int threads) {
+        this.settings = settings;
+        this.threads = Math.max(1, threads);
+        this.queueCapacity = this.threads * 8;
+    }
+
+    /**
+     * Decompiles every top-level class of {@code archive} into {@code output}, which is a directory
+     * or, if {@code zip} is set, a zip file of sources.
+     */
+    public Summary decompile(Path archive, Path output, boolean zip) throws IOException {
+        long start = System.nanoTime();
+        try (JarIndex index = JarIndex.fromJar(archive)) {
+            List<String> classes = topLevelClasses(index);
+            BlockingQueue<Source> queue = new ArrayBlockingQueue<>(queueCapacity);
+            AtomicInteger next = new AtomicInteger();
+            AtomicInteger failures = new AtomicInteger();
+            PriorityQueue<Timing> slowest = new PriorityQueue<>();
+            // set once the writer gives up, nobody takes from the queue after that
+            AtomicBoolean writerFailed = new AtomicBoolean();
+
+            ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "sulfur-batch-decompiler");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Future<?>> running = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    running.add(workers.submit(() -> {
+                        work(index, classes, next, queue, writerFailed, failures, slowest);
+                        return null;
+                    }));
+                }
+                // the workers finish in the background, END goes in after the last of them
+                Thread closer = new Thread(() -> {
+                    for (Future<?> future : running) {
+                        try {
+                            future.get();
+                        } catch (Exception e) {
+                            System.err.println("[!] Batch worker failed: " + e.getMessage());
+                        }
+                    }
+                    try {
+                        offer(queue, END, writerFailed);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "sulfur-batch-closer");
+                closer.setDaemon(true);
+                closer.start();
+
+                try {
+                    if (zip) {
+                        writeZip(queue, output, failures);
+                    } else {
+                        writeDirectory(queue, output, failures);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // release the workers and the closer, whatever they still have goes nowhere
+                    writerFailed.set(true);
+                    queue.clear();
+                    throw e;
+                }
+            } finally {
+                workers.shutdownNow();
+            }
+
+            List<String> slowestNames = new ArrayList<>();
+            synchronized (slowest) {
+                List<Timing> sorted = new ArrayList<>(slowest);
+                sorted.sort(Collections.reverseOrder());
+                for (Timing timing : sorted) {
+                    slowestNames.add(timing.name + " " + TimeUnit.NANOSECONDS.toMillis(timing.nanos) + " ms");
+                }
+            }
+            return new Summary(archive, classes.size(), failures.get(), System.nanoTime() - start, slowestNames);
+        }
+    }
+
+    /**
+     * Nested classes come out as part of their outer class, so only top-level classes are decompiled.
+     */
+    private static List<String> topLevelClasses(JarIndex index) {
+        Set<String> names = index.classNames();
+        List<String> classes = new ArrayList<>();
+        for (String className : names) {
+            int dollar = className.indexOf('$', className.lastIndexOf('.') + 1);
+            if (dollar > 0 && names.contains(className.substring(0, dollar))) continue;
+            classes.add(className);
+        }
+        return classes;
+    }
+
+    private void work(JarIndex index, List<String> classes, AtomicInteger next, BlockingQueue<Source> queue,
+                      AtomicBoolean writerFailed, AtomicInteger failures, PriorityQueue<Timing> slowest) throws InterruptedException {
+        boolean cfr = settings.isUseCfrDecompiler();
+        int step = cfr ? CFR_BATCH : 1;
+        while (true) {
+            int from = next.getAndAdd(step);
+            if (from >= classes.size() || writerFailed.get()) return;
+            List<String> batch = classes.subList(from, Math.min(from + step, classes.size()));
+            long start = System.nanoTime();
+            List<String> sources = new ArrayList<>(batch.size());
+            try {
+                if (cfr) {
+                    Map<String, String> decompiled = DecompilerService.decompileAllWithCFR(index, batch, settings);
+                    for (String className : batch) {
+                        sources.add(decompiled.get(className));
+                    }
+                } else {
+                    sources.add(DecompilerService.decompile(index, batch.get(0), settings));
+                }
+            } catch (Exception e) {
+                sources.clear();
+                for (String className : batch) {
+                    sources.add("/* [!] Decompilation error:\n" + e + "\n*/");
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            // a cfr session is timed as a whole, its classes share the time
+            record(slowest, batch.size() == 1 ? batch.get(0) : batch.get(0) + " (+" + (batch.size() - 1) + " in the same cfr batch)", nanos);
+
+            for (int i = 0; i < batch.size(); i++) {
+                String entryName = entryName(batch.get(i));
+                if (entryName == null) {
+                    // a hostile archive can name a class so it lands outside the output
+                    System.err.println("[!] Skipping " + batch.get(i) + ", its name is not a safe path");
+                    failures.incrementAndGet();
+                    continue;
+                }
+                String source = sources.get(i);
+                if (source == null) {
+                    source = "/* [!] Decompilation error:\nno output for " + batch.get(i) + "\n*/";
+                }
+                if (source.startsWith("/* [!]")) {
+                    failures.incrementAndGet();
+                }
+                if (!offer(queue, new Source(entryName, source), writerFailed)) return;
+            }
+        }
+    }
+
+    /**
+     * @return the relative path of a class's source, or null when a segment of the class name is
+     *         empty or "..", or could be read as a drive or a separator
+     */
+    static String entryName(String className) {
+        String[] segments = className.split("\\.", -1);
+        for (String segment : segments) {
+            if (segment.isEmpty() || segment.equals("..") || segment.indexOf('/') >= 0
+                    || segment.indexOf('\\') >= 0 || segment.indexOf(':') >= 0 || segment.indexOf('\0') >= 0) {
+                return null;
+            }
+        }
+        return String.join("/", segments) + ".java";
+    }
+
+    private static final class Timing implements Comparable<Timing> {
+        final String name;
+        final long nanos;
+
+        Timing(String name, long nanos) {
+            this.name = name;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public int compareTo(Timing other) {
+            return Long.compare(nanos, other.nanos);
+        }
+    }
+
+    private static void record(PriorityQueue<Timing> slowest, String name, long nanos) {
+        synchronized (slowest) {
+            // a min-heap of the slowest so far, the fastest of them is dropped first
+            if (slowest.size() < SLOWEST_KEPT) {
+                slowest.add(new Timing(name, nanos));
+            } else if (slowest.peek().nanos < nanos) {
+                slowest.poll();
+                slowest.add(new Timing(name, nanos));
+            }
+        }
+    }
+
+    private static void writeDirectory(BlockingQueue<Source> queue, Path dir, AtomicInteger failures) throws IOException {
+        Files.createDirectories(dir);
+        Path root = dir.toAbsolutePath().normalize();
+        Source source;
+        while ((source = take(queue)) != END) {
+            Path file = root.resolve(source.entryName).normalize();
+            if (!file.startsWith(root) || file.equals(root)) {
+                System.err.println("[!] Skipping " + source.entryName + ", it resolves outside " + root);
+                failures.incrementAndGet();
+                continue;
+            }
+            Files.createDirectories(file.getParent());
+            Files.write(file, source.text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void writeZip(BlockingQueue<Source> queue, Path zipFile, AtomicInteger failures) throws IOException {
+        Path parent = zipFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, zipFile.getFileName().toString(), ".tmp");
+        ExecutorService compressors = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "sulfur-zip-compressor");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 ParallelZipWriter zip = new ParallelZipWriter(channel, compressors, queueCapacity)) {
+                Source source;
+                while ((source = take(queue)) != END) {
+                    if (!isSafeZipEntry(source.entryName)) {
+                        System.err.println("[!] Skipping " + source.entryName + ", not a safe zip entry name");
+                        failures.incrementAndGet();
+                        continue;
+                    }
+                    zip.writeDeflated(source.entryName, source.text.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            Files.move(tmp, zipFile, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            compressors.shutdownNow();
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static boolean isSafeZipEntry(String name) {
+        if (name.isEmpty() || name.startsWith("/") || name.indexOf('\\') >= 0 || name.indexOf(':') >= 0) return false;
+        for (String segment : name.split("/", -1)) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) return false;
+        }
+        return true;
+    }
+
+    private static Source take(BlockingQueue<Source> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("[!] Interrupted while writing sources", e);
+        }
+    }
+
+    /**
+     * Waits for room in the queue, unless the writer has failed.
+     *
+     * @return false if the writer failed and the source was dropped
+     */
+    private static boolean offer(BlockingQueue<Source> queue, Source source, AtomicBoolean writerFailed) throws InterruptedException {
+        while (!writerFailed.get()) {
+            if (queue.offer(source, OFFER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) return true;
+        }
+        return false;
+    }
+}
@@ -5,9 +5,9 @@ import java.util.Map;
 
 public class BytecodeAssembler {
 
-    private final JarIndex jarIndex;
+    private final ClassPath jarIndex;
 
-    public BytecodeAssembler(JarIndex jarIndex) {
+    public BytecodeAssembler(ClassPath jarIndex) {
         this.jarIndex = jarIndex;
     }
 
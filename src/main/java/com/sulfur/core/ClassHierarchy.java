@@ -0,0 +1,138 @@
+package com.sulfur.core;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Super classes and interfaces of every class in an archive, plus the reverse
+ * lookup. Names are dotted like everywhere else in {@link JarIndex}.
+ */
+public class ClassHierarchy {
+    private static final String[] NONE = new String[0];
+
+    private final Map<String, String> superNames = new HashMap<>();
+    private final Map<String, String[]> interfaces = new HashMap<>();
+    private final Map<String, List<String>> subtypes = new HashMap<>();
+    // classes that could not be read, as opposed to class files that are broken
+    private int unreadable;
+
+    /**
+     * Reads only the class headers, straight from the archive so the caches are left alone.
+     *
+     * @return the hierarchy, or null if the index was closed before it was done
+     */
+    static ClassHierarchy build(JarIndex index) {
+        ClassHierarchy hierarchy = new ClassHierarchy();
+        for (String className : index.classNames()) {
+            if (index.isClosed()) {
+                return null;
+            }
+            byte[] bytes;
+            try {
+                bytes = index.readOriginalBytes(className);
+            } catch (Exception e) {
+                hierarchy.unreadable++;
+                continue;
+            }
+            try {
+                ClassReader reader = new ClassReader(bytes);
+                String superName = reader.getSuperName();
+                String[] itfs = reader.getInterfaces();
+                for (int i = 0; i < itfs.length; i++) {
+                    itfs[i] = itfs[i].replace('/', '.');
+                }
+                hierarchy.add(className, superName == null ? null : superName.replace('/', '.'), itfs);
+            } catch (Exception e) {
+                // obfuscators like to leave broken class files around, they just stay out of the hierarchy
+            }
+        }
+        // a close while the last classes were read only shows up as read failures
+        return index.isClosed() ? null : hierarchy;
+    }
+
+    /**
+     * @return false if some classes could not be read, a rebuild may still find them
+     */
+    public boolean isComplete() {
+        return unreadable == 0;
+    }
+
+    private void add(String className, String superName, String[] itfs) {
+        if (superName != null) {
+            superNames.put(className, superName);
+            subtypes.computeIfAbsent(superName, k -> new ArrayList<>()).add(className);
+        }
+        if (itfs.length > 0) {
+            interfaces.put(className, itfs);
+            for (String itf : itfs) {
+                subtypes.computeIfAbsent(itf, k -> new ArrayList<>()).add(className);
+            }
+        }
+    }
+
+    /**
+     * @return the super class, or null for java.lang.Object, module-info and unknown classes
+     */
+    public String getSuperName(String className) {
+        return superNames.get(className);
+    }
+
+    public List<String> getInterfaces(String className) {
+        return Arrays.asList(interfaces.getOrDefault(className, NONE));
+    }
+
+    /**
+     * @return classes of the archive that directly extend or implement the given type
+     */
+    public List<String> getDirectSubtypes(String className) {
+        return Collections.unmodifiableList(subtypes.getOrDefault(className, Collections.emptyList()));
+    }
+
+    public Set<String> classNames() {
+        return Collections.unmodifiableSet(superNames.keySet());
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(superNames.size());
+        for (Map.Entry<String, String> entry : superNames.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+        out.writeInt(interfaces.size());
+        for (Map.Entry<String, String[]> entry : interfaces.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeShort(entry.getValue().length);
+            for (String itf : entry.getValue()) {
+                out.writeUTF(itf);
+            }
+        }
+    }
+
+    static ClassHierarchy read(DataInput in) throws IOException {
+        ClassHierarchy hierarchy = new ClassHierarchy();
+        int supers = in.readInt();
+        for (int i = 0; i < supers; i++) {
+            hierarchy.add(in.readUTF(), in.readUTF(), NONE);
+        }
+        int withInterfaces = in.readInt();
+        for (int i = 0; i < withInterfaces; i++) {
+            String className = in.readUTF();
+            String[] itfs = new String[in.readUnsignedShort()];
+            for (int j = 0; j < itfs.length; j++) {
+                itfs[j] = in.readUTF();
+            }
+            hierarchy.add(className, null, itfs);
+        }
+        return hierarchy;
+    }
+}
@@ -0,0 +1,167 @@
+package com.sulfur.core;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out which classes are decompiled together: a top-level class and every class nested in
+ * it, named or anonymous, at any depth. Decompiling the top-level class prints all of them.
+ *
+ * The NestHost and NestMembers attributes (Java 11+) answer this directly, older classes are
+ * followed through their InnerClasses and EnclosingMethod attributes.
+ */
+public class ClassNest {
+    // obfuscators love cycles in these attributes
+    private static final int MAX_NESTING = 32;
+    private static final int MAX_MEMBERS = 4096;
+
+    private final String host;
+    private final Set<String> members;
+
+    // the nesting attributes of one class file
+    private static final class Attributes {
+        String nestHost;
+        String outerClass;
+        final List<String> nestMembers = new ArrayList<>();
+        // InnerClasses entries as (inner, outer) pairs, outer is null for anonymous and local classes
+        final List<String[]> innerClasses = new ArrayList<>();
+    }
+
+    private ClassNest(String host, Set<String> members) {
+        this.host = host;
+        this.members = members;
+    }
+
+    /**
+     * @return the nest {@code className} belongs to, which is just the class itself when it is
+     *         neither nested nor has nested classes
+     */
+    public static ClassNest of(ClassPath classPath, String className) {
+        String host = hostOf(classPath, className);
+        Set<String> members = membersOf(classPath, host);
+        // a host that does not list the class as one of its members is not trusted
+        if (!host.equals(className) && !members.contains(className)) {
+            host = className;
+            members = membersOf(classPath, className);
+        }
+        return new ClassNest(host, members);
+    }
+
+    /**
+     * @return the top-level class, the one that is decompiled for the whole nest
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return every class nested in the host at any depth, not including the host itself
+     */
+    public Set<String> getMembers() {
+        return members;
+    }
+
+    private static String hostOf(ClassPath classPath, String className) {
+        String current = className;
+        for (int depth = 0; depth < MAX_NESTING; depth++) {
+            Attributes attributes = read(classPath, current);
+            if (attributes == null) break;
+            String outer = attributes.nestHost != null ? attributes.nestHost : attributes.outerClass;
+            if (outer == null || outer.equals(current) || !classPath.classNames().contains(outer)) break;
+            current = outer;
+            // the nest host is already the top-level class
+            if (attributes.nestHost != null) break;
+        }
+        return current;
+    }
+
+    private static Set<String> membersOf(ClassPath classPath, String host) {
+        Set<String> members = new LinkedHashSet<>();
+        Attributes hostNest = read(classPath, host);
+        if (hostNest == null) return members;
+        if (!hostNest.nestMembers.isEmpty()) {
+            for (String member : hostNest.nestMembers) {
+                if (!member.equals(host) && classPath.classNames().contains(member)) {
+                    members.add(member);
+                }
+            }
+            return members;
+        }
+
+        // no NestMembers, older than Java 11: every class lists the classes nested directly in it
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(host);
+        while (!pending.isEmpty() && members.size() < MAX_MEMBERS) {
+            String current = pending.poll();
+            Attributes nest = current.equals(host) ? hostNest : read(classPath, current);
+            if (nest == null) continue;
+            for (String[] entry : nest.innerClasses) {
+                String inner = entry[0];
+                String outer = entry[1];
+                boolean nested = outer != null ? outer.equals(current) : inner.startsWith(current + "$");
+                if (nested && !inner.equals(host) && classPath.classNames().contains(inner) && members.add(inner)) {
+                    pending.add(inner);
+                }
+            }
+        }
+        return members;
+    }
+
+    private static Attributes read(ClassPath classPath, String className) {
+        byte[] bytes;
+        try {
+            bytes = classPath.getClassBytes(className);
+        } catch (Exception e) {
+            return null;
+        }
+        if (bytes == null) return null;
+
+        Attributes nest = new Attributes();
+        try {
+            new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public void visitNestHost(String host) {
+                    nest.nestHost = host.replace('/', '.');
+                }
+
+                @Override
+                public void visitNestMember(String member) {
+                    nest.nestMembers.add(member.replace('/', '.'));
+                }
+
+                @Override
+                public void visitOuterClass(String owner, String name, String descriptor) {
+                    // local and anonymous classes only know the class of their enclosing method
+                    nest.outerClass = owner.replace('/', '.');
+                }
+
+                @Override
+                public void visitInnerClass(String name, String outerName, String innerName, int access) {
+                    String inner = name.replace('/', '.');
+                    String outer = outerName == null ? null : outerName.replace('/', '.');
+                    nest.innerClasses.add(new String[] { inner, outer });
+                    if (inner.equals(className)) {
+                        if (outer != null) {
+                            nest.outerClass = outer;
+                        } else if (nest.outerClass == null && inner.lastIndexOf('$') > inner.lastIndexOf('.') + 1) {
+                            // synthetic classes like switch maps are anonymous without an enclosing method
+                            nest.outerClass = inner.substring(0, inner.lastIndexOf('$'));
+                        }
+                    }
+                }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        } catch (RuntimeException e) {
+            // malformed attributes, the class is treated as standing alone
+            return null;
+        }
+        return nest;
+    }
+}
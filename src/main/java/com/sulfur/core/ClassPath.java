@@ -0,0 +1,32 @@
+package com.sulfur.core;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Anything classes can be resolved from by name: a single {@link JarIndex} or a
+ * {@link Workspace} of several.
+ */
+public interface ClassPath {
+
+    Set<String> classNames();
+
+    byte[] getClassBytes(String className) throws IOException;
+
+    void putClassBytes(String className, byte[] newBytes);
+
+    String getDecompiledCode(String className);
+
+    void putDecompiledCode(String className, String decompiledCode);
+
+    /**
+     * @return the library a class comes from, or null if it belongs to the main archive
+     */
+    String getLibrary(String className);
+
+    /**
+     * @return a number that goes up whenever a class changes, whatever was derived from the
+     *         classes at an older generation is out of date
+     */
+    long getGeneration();
+}
@@ -0,0 +1,60 @@
+package com.sulfur.core;
+
+import org.benf.cfr.reader.api.ClassFileSource;
+import org.benf.cfr.reader.bytecode.analysis.parse.utils.Pair;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Serves class files to CFR from a {@link ClassPath} instead of the file system, so it sees
+ * in-memory edits and can look at the other classes of the archive. JDK classes come from the
+ * runtime image, like for Procyon (see {@link ClassPathTypeLoader}).
+ *
+ * Paths are internal names with a ".class" suffix, which is also what gets passed to
+ * {@code CfrDriver.analyse}.
+ */
+public class ClassPathClassFileSource implements ClassFileSource {
+    private static final String SUFFIX = ".class";
+
+    private final ClassPath classPath;
+
+    public ClassPathClassFileSource(ClassPath classPath) {
+        this.classPath = classPath;
+    }
+
+    public static String pathOf(String className) {
+        return className.replace('.', '/') + SUFFIX;
+    }
+
+    @Override
+    public void informAnalysisRelativePathDetail(String usePath, String classFilePath) {
+        // paths are never relative to a directory here
+    }
+
+    @Override
+    public Collection<String> addJar(String jarPath) {
+        // only classes are ever analysed, the archive itself is the class path
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String getPossiblyRenamedPath(String path) {
+        return path;
+    }
+
+    @Override
+    public Pair<byte[], String> getClassFileContent(String path) throws IOException {
+        String internalName = path.endsWith(SUFFIX) ? path.substring(0, path.length() - SUFFIX.length()) : path;
+        String className = internalName.replace('/', '.');
+        if (classPath.classNames().contains(className)) {
+            return Pair.make(classPath.getClassBytes(className), path);
+        }
+        byte[] jdkClass = ClassPathTypeLoader.readJdkClass(internalName);
+        if (jdkClass == null) {
+            throw new IOException("[!] Class not found: " + className);
+        }
+        return Pair.make(jdkClass, path);
+    }
+}
@@ -0,0 +1,97 @@
+package com.sulfur.core;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Procyon type loader that finds any class through a {@link ClassPath}, and JDK classes through
+ * the runtime image ({@code jrt:/}), so referenced types resolve instead of showing up as unknown.
+ */
+public class ClassPathTypeLoader implements ITypeLoader {
+    private static final FileSystem JRT = openRuntimeImage();
+    // package (dotted) -> the modules of the runtime image that contain it, empty if none do
+    private static final Map<String, List<String>> JDK_PACKAGES = new ConcurrentHashMap<>();
+
+    private final ClassPath classPath;
+
+    public ClassPathTypeLoader(ClassPath classPath) {
+        this.classPath = classPath;
+    }
+
+    @Override
+    public boolean tryLoadType(String internalName, Buffer buffer) {
+        byte[] bytes;
+        String className = internalName.replace('/', '.');
+        if (classPath.classNames().contains(className)) {
+            try {
+                bytes = classPath.getClassBytes(className);
+            } catch (IOException e) {
+                return false;
+            }
+        } else {
+            bytes = readJdkClass(internalName);
+        }
+        if (bytes == null) return false;
+        buffer.reset(bytes.length);
+        buffer.putByteArray(bytes, 0, bytes.length);
+        buffer.position(0);
+        return true;
+    }
+
+    /**
+     * @return the class file of a JDK class from the running JVM's image, or null
+     */
+    static byte[] readJdkClass(String internalName) {
+        if (JRT == null) return null;
+        int slash = internalName.lastIndexOf('/');
+        // the JDK has no classes in the default package
+        if (slash < 0) return null;
+        String pkg = internalName.substring(0, slash).replace('/', '.');
+        for (String module : JDK_PACKAGES.computeIfAbsent(pkg, ClassPathTypeLoader::modulesOf)) {
+            try {
+                return Files.readAllBytes(JRT.getPath("/modules", module, internalName + ".class"));
+            } catch (NoSuchFileException e) {
+                // split packages do not exist in the JDK, but keep looking anyway
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> modulesOf(String pkg) {
+        Path dir = JRT.getPath("/packages", pkg);
+        if (!Files.isDirectory(dir)) return Collections.emptyList();
+        List<String> modules = new ArrayList<>(1);
+        try (Stream<Path> links = Files.list(dir)) {
+            links.forEach(link -> modules.add(link.getFileName().toString()));
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+        return modules;
+    }
+
+    private static FileSystem openRuntimeImage() {
+        try {
+            return FileSystems.getFileSystem(URI.create("jrt:/"));
+        } catch (RuntimeException e) {
+            // running on a JVM without a module image, JDK types just stay unresolved
+            System.err.println("[!] Could not open the runtime image: " + e.getMessage());
+            return null;
+        }
+    }
+}
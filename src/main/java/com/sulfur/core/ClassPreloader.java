@@ -0,0 +1,125 @@
+package com.sulfur.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads every class of a {@link JarIndex} into its class cache in parallel, so
+ * later lookups never touch the archive. Stops taking new classes once the
+ * memory budget is used up.
+ */
+public class ClassPreloader {
+
+    public interface ProgressListener {
+        void onProgress(int done, int total);
+    }
+
+    // number of classes a single fork-join task handles before it stops splitting
+    private static final int SPLIT_THRESHOLD = 64;
+
+    private final JarIndex index;
+    private final long budgetBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger loaded = new AtomicInteger();
+    private volatile boolean cancelled;
+
+    public ClassPreloader(JarIndex index, long budgetBytes) {
+        this.index = index;
+        // never let the preload eat more than half of the heap, whatever the setting says,
+        // and never load more than the class cache can hold or it just evicts itself.
+        // an off-heap store does not use the heap at all, so only its own capacity matters there
+        long cap = index.getOffHeapStore() != null
+                ? index.getClassStorageCapacity()
+                : Math.min(Runtime.getRuntime().maxMemory() / 2, index.getClassStorageCapacity());
+        this.budgetBytes = Math.min(budgetBytes, cap);
+    }
+
+    /**
+     * Runs the preload on a dedicated fork-join pool and blocks until it is done.
+     * @return the number of classes that were loaded into the cache
+     */
+    public int run(ProgressListener listener) {
+        List<String> classes = new ArrayList<>(index.classNames());
+        int total = classes.size();
+        // report roughly every percent, the listener usually hops onto the EDT
+        int reportEvery = Math.max(1, total / 100);
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        try {
+            pool.invoke(new PreloadTask(classes, 0, total, total, reportEvery, listener));
+        } finally {
+            pool.shutdown();
+        }
+        if (listener != null) {
+            listener.onProgress(done.get(), total);
+        }
+        return loaded.get();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    private void preloadClass(String className) {
+        long size = index.getClassSize(className);
+        if (size < 0) return;
+        // reserve before reading so concurrent workers cannot overshoot the budget together
+        if (usedBytes.addAndGet(size) > budgetBytes) {
+            usedBytes.addAndGet(-size);
+            return;
+        }
+        try {
+            index.getClassBytes(className);
+            loaded.incrementAndGet();
+        } catch (Exception e) {
+            usedBytes.addAndGet(-size);
+            // the index gets closed under us when another jar is opened mid-preload
+            if (cancelled) return;
+            System.err.println("[!] Failed to preload " + className + ": " + e.getMessage());
+        }
+    }
+
+    private class PreloadTask extends RecursiveAction {
+        private final List<String> classes;
+        private final int from;
+        private final int to;
+        private final int total;
+        private final int reportEvery;
+        private final ProgressListener listener;
+
+        PreloadTask(List<String> classes, int from, int to, int total, int reportEvery, ProgressListener listener) {
+            this.classes = classes;
+            this.from = from;
+            this.to = to;
+            this.total = total;
+            this.reportEvery = reportEvery;
+            this.listener = listener;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PreloadTask(classes, from, mid, total, reportEvery, listener),
+                        new PreloadTask(classes, mid, to, total, reportEvery, listener));
+                return;
+            }
+            for (int i = from; i < to && !cancelled; i++) {
+                preloadClass(classes.get(i));
+                int n = done.incrementAndGet();
+                if (listener != null && n % reportEvery == 0) {
+                    listener.onProgress(n, total);
+                }
+            }
+        }
+    }
+}
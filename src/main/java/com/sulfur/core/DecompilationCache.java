@@ -0,0 +1,105 @@
+package com.sulfur.core;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decompiled sources keyed by what they were produced from: the class bytes, the backend and
+ * the options it ran with. Switching backends or toggling deobfuscation back and forth finds
+ * the earlier output again, and edited bytes simply stop matching.
+ *
+ * Entries are grouped per class so an edit drops all of a class's sources at once, and are
+ * bounded by their total size in chars.
+ */
+public class DecompilationCache {
+    private static final long DEFAULT_CAPACITY_CHARS = 32L * 1024 * 1024;
+
+    // every source of one class, replaced as a whole so the cache can weigh it on put
+    private static final class Sources {
+        final byte[] digest;
+        final Map<String, String> byVariant;
+        final long weight;
+
+        Sources(byte[] digest, Map<String, String> byVariant) {
+            this.digest = digest;
+            this.byVariant = byVariant;
+            long total = 0;
+            for (String source : byVariant.values()) {
+                total += source.length();
+            }
+            this.weight = total;
+        }
+    }
+
+    private final WeightedCache<String, Sources> sources = new WeightedCache<>(DEFAULT_CAPACITY_CHARS, s -> s.weight);
+
+    /**
+     * @param variant the backend and the options that change its output, see {@link #variant}
+     * @return the source decompiled from exactly these bytes with this variant, or null
+     */
+    public String get(String className, byte[] classBytes, String variant) {
+        Sources cached = sources.get(className);
+        if (cached == null || !Arrays.equals(cached.digest, digest(classBytes))) {
+            return null;
+        }
+        return cached.byVariant.get(variant);
+    }
+
+    public void put(String className, byte[] classBytes, String variant, String source) {
+        byte[] digest = digest(classBytes);
+        // checking and replacing is not atomic, at worst a concurrent result of the same class is lost
+        Sources cached = sources.peek(className);
+        Map<String, String> byVariant = new HashMap<>();
+        if (cached != null && Arrays.equals(cached.digest, digest)) {
+            byVariant.putAll(cached.byVariant);
+        }
+        byVariant.put(variant, source);
+        sources.put(className, new Sources(digest, byVariant));
+    }
+
+    /**
+     * Drops every source of a class, called when its bytes are replaced.
+     */
+    public void invalidate(String className) {
+        sources.remove(className);
+    }
+
+    public void clear() {
+        sources.clear();
+    }
+
+    public void setCapacity(long chars) {
+        sources.setCapacity(chars);
+    }
+
+    /**
+     * Builds the part of the key that is not the class itself. Options are given in a fixed
+     * order by the caller, so equal options always give equal keys.
+     */
+    public static String variant(String backend, boolean zkm, boolean allatori, Map<String, String> options) {
+        StringBuilder key = new StringBuilder(backend);
+        key.append(zkm ? "+zkm" : "").append(allatori ? "+allatori" : "");
+        if (options != null) {
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                key.append(';').append(option.getKey()).append('=').append(option.getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    private static byte[] digest(byte[] classBytes) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(classBytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sources.toString();
+    }
+}
@@ -43,85 +43,703 @@ import com.sulfur.core.deobfuscator.AllatoriDeobfuscator;
 import com.sulfur.core.deobfuscator.ZKMDeobfuscator;
 import org.benf.cfr.reader.api.CfrDriver;
 import org.benf.cfr.reader.api.OutputSinkFactory;
+import org.benf.cfr.reader.api.SinkReturns;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DecompilerService {
     
-    private static final ZKMDeobfuscator zkmDeobfuscator = new ZKMDeobfuscator();
-    private static final AllatoriDeobfuscator allatoriDeobfuscator = new AllatoriDeobfuscator();
+    // the deobfuscators keep state while they process a source, so every thread gets its own
+    private static final ThreadLocal<ZKMDeobfuscator> zkmDeobfuscator = ThreadLocal.withInitial(ZKMDeobfuscator::new);
+    private static final ThreadLocal<AllatoriDeobfuscator> allatoriDeobfuscator = ThreadLocal.withInitial(AllatoriDeobfuscator::new);
+    // keyed by content, so it is shared by every open archive and outlives them
+    private static final DecompilationCache results = new DecompilationCache();
+
+    // sorted, so the cache key built from them is stable
+    private static final Map<String, String> CFR_OPTIONS = new TreeMap<>(Map.of(
+            "showversion", "false",
+            "hidebridgemethods", "true",
+            "hidelongstrings", "true",
+            "decodestringswitch", "true",
+            "sugarenums", "true",
+            "decodelambdas", "true",
+            "comments", "true"));
+
+    // nests worked out so far, per class path and by each of their classes
+    private static final Map<ClassPath, Map<String, NestInfo>> nests = new WeakHashMap<>();
+    // ids for the keys of nestsInFlight, class paths do not override equals so this is by identity
+    private static final Map<ClassPath, Long> classPathIds = new WeakHashMap<>();
+    private static final AtomicLong nextClassPathId = new AtomicLong();
+    // nests some thread is decompiling right now, by class path, host and variant
+    private static final Map<String, CompletableFuture<String>> nestsInFlight = new ConcurrentHashMap<>();
+
+    // sources kept between sessions, null when turned off
+    private static volatile DiskSourceCache diskCache;
+
+    // procyon's type metadata, kept per thread since a MetadataSystem is not thread-safe
+    private static final ThreadLocal<ProcyonContext> procyonContext = new ThreadLocal<>();
+    // every thread's context, so closing a class path can let go of its metadata on idle threads too
+    private static final Set<ProcyonContext> procyonContexts = ConcurrentHashMap.newKeySet();
+    // classes decompiled with one MetadataSystem before it is dropped, it only ever grows
+    private static final int METADATA_REUSE_LIMIT = 2000;
+
+    private static final int PROCYON = 0;
+    private static final int CFR = 1;
+    // how every race went so far, by backend
+    private static final RaceStats[] raceStats = { new RaceStats("Procyon"), new RaceStats("CFR") };
+    // after this many races a backend that keeps winning gets a head start
+    private static final int RACES_BEFORE_ADAPTING = 20;
+    private static final double LEADER_WIN_SHARE = 0.8;
+    // with a leader, still start both backends at once in one race of this many, so the other one can catch up
+    private static final int FULL_RACE_EVERY = 10;
+    private static final AtomicInteger racesRun = new AtomicInteger();
+    // bounded, the decompilers ignore interrupts and a hung class must not pile up threads
+    private static final ExecutorService racePool = Executors.newFixedThreadPool(
+            2 * Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "sulfur-decompiler-race");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private static final class RaceStats {
+        final String backend;
+        final AtomicInteger races = new AtomicInteger();
+        final AtomicInteger wins = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicLong nanos = new AtomicLong();
+
+        RaceStats(String backend) {
+            this.backend = backend;
+        }
+
+        void record(long elapsed, boolean failed, boolean won) {
+            finished.incrementAndGet();
+            nanos.addAndGet(elapsed);
+            if (failed) failures.incrementAndGet();
+            if (won) wins.incrementAndGet();
+        }
+
+        long averageMillis() {
+            int n = finished.get();
+            return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos.get() / n);
+        }
+
+        @Override
+        public String toString() {
+            return backend + " won " + wins.get() + " of " + races.get() + " races, "
+                    + averageMillis() + " ms on average, " + failures.get() + " failed";
+        }
+    }
+
+    /**
+     * One class being decompiled by both backends, whichever has a good source first wins.
+     */
+    private static final class Race {
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        final List<Callable<String>> backends;
+        final AtomicBoolean[] started = { new AtomicBoolean(), new AtomicBoolean() };
+        final Future<?>[] tasks = new Future<?>[2];
+        final AtomicInteger failed = new AtomicInteger();
+        // what each backend produced when it failed, an error source or an exception
+        final Object[] failures = new Object[2];
+        final int preferred;
+
+        Race(List<Callable<String>> backends, int preferred) {
+            this.backends = backends;
+            this.preferred = preferred;
+        }
+
+        void start(int backend) {
+            if (!started[backend].compareAndSet(false, true)) return;
+            raceStats[backend].races.incrementAndGet();
+            Future<?> task = racePool.submit(() -> run(backend));
+            synchronized (tasks) {
+                tasks[backend] = task;
+            }
+            // decided while it was being submitted, it is not wanted any more
+            if (first.isDone()) task.cancel(true);
+        }
+
+        /**
+         * Stops whatever is still running or queued, once there is a winner or the caller gave up.
+         */
+        void cancel() {
+            synchronized (tasks) {
+                for (Future<?> task : tasks) {
+                    if (task != null) task.cancel(true);
+                }
+            }
+        }
+
+        private void run(int backend) {
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = backends.get(backend).call();
+            } catch (Exception e) {
+                result = e;
+            }
+            boolean good = result instanceof String source && !source.startsWith("/* [!]");
+            boolean won = good && first.complete((String) result);
+            raceStats[backend].record(System.nanoTime() - start, !good, won);
+            if (won) {
+                Future<?> loser;
+                synchronized (tasks) {
+                    loser = tasks[1 - backend];
+                }
+                if (loser != null) loser.cancel(true);
+            }
+            if (good) return;
+
+            failures[backend] = result;
+            if (failed.incrementAndGet() == 2) {
+                // neither made it, show what the configured backend has to say
+                Object failure = failures[preferred];
+                if (failure instanceof Exception e) {
+                    first.completeExceptionally(e);
+                } else {
+                    first.complete((String) failure);
+                }
+            } else {
+                // the other backend may have been held back, it gets its turn now
+                start(1 - backend);
+            }
+        }
+    }
+
+    private static final class ProcyonContext {
+        // both dropped once the class path is closed
+        volatile ClassPath classPath;
+        volatile MetadataSystem metadata;
+        final long generation;
+        int uses;
+
+        ProcyonContext(ClassPath classPath, long generation) {
+            this.classPath = classPath;
+            this.generation = generation;
+            this.metadata = new MetadataSystem(new ClassPathTypeLoader(classPath));
+        }
+    }
+
+    public static DecompilationCache getResultCache() {
+        return results;
+    }
+
+    public static DiskSourceCache getDiskCache() {
+        return diskCache;
+    }
+
+    public static void setDiskCache(DiskSourceCache cache) {
+        diskCache = cache;
+    }
+
+    /**
+     * Forgets everything derived from the old bytes of a class: its cached sources and the
+     * type metadata other classes were decompiled against.
+     */
+    public static void classChanged(String className) {
+        results.invalidate(className);
+        forgetNest(className);
+    }
+
+    /**
+     * Lets go of the type metadata every thread keeps for a class path that is no longer used,
+     * pool threads that never decompile again would hold on to it otherwise.
+     */
+    public static void classPathClosed(ClassPath classPath) {
+        for (ProcyonContext context : procyonContexts) {
+            if (context.classPath == classPath) {
+                context.classPath = null;
+                context.metadata = null;
+                procyonContexts.remove(context);
+            }
+        }
+    }
+
+    private static MetadataSystem metadataFor(ClassPath classPath) {
+        ProcyonContext context = procyonContext.get();
+        // the class path's own generation, edits elsewhere leave this metadata alone
+        long generation = classPath.getGeneration();
+        MetadataSystem metadata = context == null ? null : context.metadata;
+        if (metadata == null || context.classPath != classPath || context.generation != generation
+                || ++context.uses > METADATA_REUSE_LIMIT) {
+            if (context != null) {
+                procyonContexts.remove(context);
+            }
+            context = new ProcyonContext(classPath, generation);
+            metadata = context.metadata;
+            procyonContext.set(context);
+            procyonContexts.add(context);
+        }
+        return metadata;
+    }
+
+    /**
+     * Looks a source up in memory first, then on disk.
+     */
+    private static String cachedSource(String className, byte[] classBytes, String variant) {
+        String source = results.get(className, classBytes, variant);
+        DiskSourceCache disk = diskCache;
+        if (source == null && disk != null) {
+            source = disk.get(classBytes, variant);
+            if (source != null) {
+                results.put(className, classBytes, variant, source);
+            }
+        }
+        return source;
+    }
+
+    private static void cacheSource(String className, byte[] classBytes, String variant, String source) {
+        results.put(className, classBytes, variant, source);
+        DiskSourceCache disk = diskCache;
+        // failures are worth retrying next session, with a fixed decompiler or a different classpath
+        if (disk != null && !source.startsWith("/* [!]")) {
+            disk.putLater(classBytes, variant, source);
+        }
+    }
     
-    public static String decompile(JarIndex index, String className) throws Exception {
+    public static String decompile(ClassPath index, String className) throws Exception {
         return decompile(index, className, AppSettings.loadSettings());
     }
     
-    public static String decompile(JarIndex index, String className, AppSettings settings) throws Exception {
-        byte[] classBytes = index.getClassBytes(className);
-        String decompiled = decompileWithProcyon(classBytes, className);
-        
-        // apply ZKM string deobfuscation if its enabled
-        if (settings.isZkmDeobfuscation()) {
-            decompiled = zkmDeobfuscator.process(decompiled);
-        }
-        
-        index.putDecompiledCode(className, decompiled);
+    public static String decompile(ClassPath index, String className, AppSettings settings) throws Exception {
+        String decompiled = procyonSource(index, className, settings, true);
+        putNestCode(index, className, decompiled);
         return decompiled;
     }
+
+    private static String procyonVariant(AppSettings settings) {
+        return DecompilationCache.variant("procyon", settings.isZkmDeobfuscation(), settings.isAllatoriDeobfuscation(), null);
+    }
+
+    private static String cfrVariant(AppSettings settings) {
+        return DecompilationCache.variant("cfr", settings.isZkmDeobfuscation(), settings.isAllatoriDeobfuscation(), CFR_OPTIONS);
+    }
+
+    /**
+     * Procyon's source for a class, cached, without making it the class's decompiled code.
+     */
+    private static String procyonSource(ClassPath index, String className, AppSettings settings, boolean join) throws Exception {
+        return nestSource(index, className, procyonVariant(settings), settings, join, host -> {
+            String decompiled = decompileWithProcyon(index, host);
+
+            // apply ZKM string deobfuscation if its enabled
+            if (settings.isZkmDeobfuscation()) {
+                decompiled = zkmDeobfuscator.get().process(decompiled);
+            }
+            return decompiled;
+        });
+    }
+
+    /**
+     * A class and the classes nested in it as they are cached: under the top-level class, with
+     * the bytes of every member in the key, so editing any class of the nest misses the cache.
+     */
+    private static final class NestKey {
+        final String host;
+        final byte[] hostBytes;
+        final String variant;
+
+        NestKey(String host, byte[] hostBytes, String variant) {
+            this.host = host;
+            this.hostBytes = hostBytes;
+            this.variant = variant;
+        }
+    }
+
+    /**
+     * A nest as worked out for one class path, with the part of the cache key that covers the
+     * bytes of its members.
+     */
+    private static final class NestInfo {
+        final String host;
+        final Set<String> members;
+        final String keySuffix;
+
+        NestInfo(String host, Set<String> members, String keySuffix) {
+            this.host = host;
+            this.members = members;
+            this.keySuffix = keySuffix;
+        }
+    }
+
+    private static NestKey nestKey(ClassPath index, String className, String variant) throws Exception {
+        NestInfo nest = nestOf(index, className);
+        return new NestKey(nest.host, index.getClassBytes(nest.host), variant + nest.keySuffix);
+    }
+
+    /**
+     * Works a nest out once per class path, afterwards any of its classes finds it in the map.
+     */
+    private static NestInfo nestOf(ClassPath index, String className) throws Exception {
+        Map<String, NestInfo> known;
+        synchronized (nests) {
+            known = nests.computeIfAbsent(index, k -> new ConcurrentHashMap<>());
+        }
+        NestInfo info = known.get(className);
+        if (info != null) return info;
+
+        ClassNest nest = ClassNest.of(index, className);
+        String keySuffix = "";
+        if (!nest.getMembers().isEmpty()) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String member : nest.getMembers()) {
+                digest.update(member.getBytes(StandardCharsets.UTF_8));
+                digest.update(index.getClassBytes(member));
+            }
+            keySuffix = ";nest=" + HexFormat.of().formatHex(digest.digest());
+        }
+        info = new NestInfo(nest.getHost(), nest.getMembers(), keySuffix);
+        known.put(info.host, info);
+        for (String member : info.members) {
+            known.put(member, info);
+        }
+        known.put(className, info);
+        return info;
+    }
+
+    private static String runKey(ClassPath index, String host) {
+        return classPathId(index) + ":" + host + ";";
+    }
+
+    /**
+     * @return a number no other class path of this session gets, identity hash codes can collide
+     */
+    private static long classPathId(ClassPath index) {
+        synchronized (classPathIds) {
+            return classPathIds.computeIfAbsent(index, k -> nextClassPathId.incrementAndGet());
+        }
+    }
+
+    /**
+     * Gives up on whatever run is decompiling the nest of {@code className}, so the next request
+     * for it starts a new one instead of waiting on a run that was abandoned as hung.
+     */
+    public static void abandonDecompilation(ClassPath index, String className) {
+        String host = knownNestHost(index, className);
+        String prefix = runKey(index, host != null ? host : className);
+        nestsInFlight.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * Keeps a nest's source once, under its top-level class, see {@link #knownNestHost}.
+     */
+    private static void putNestCode(ClassPath index, String className, String source) throws Exception {
+        index.putDecompiledCode(nestOf(index, className).host, source);
+    }
+
+    /**
+     * @return the top-level class whose decompiled code covers {@code className}, if its nest has
+     *         been worked out on this class path, otherwise null
+     */
+    static String knownNestHost(ClassPath index, String className) {
+        Map<String, NestInfo> known;
+        synchronized (nests) {
+            known = nests.get(index);
+        }
+        NestInfo info = known == null ? null : known.get(className);
+        return info == null ? null : info.host;
+    }
+
+    /**
+     * Drops every nest a class belongs to, or may now belong to, from every class path.
+     */
+    private static void forgetNest(String className) {
+        int dollar = className.indexOf('$', className.lastIndexOf('.') + 1);
+        // a new inner class is in no nest yet, but its outer class's nest just grew
+        String outer = dollar > 0 ? className.substring(0, dollar) : null;
+        synchronized (nests) {
+            for (Map<String, NestInfo> known : nests.values()) {
+                for (String name : outer != null ? List.of(className, outer) : List.of(className)) {
+                    NestInfo info = known.remove(name);
+                    if (info == null) continue;
+                    known.remove(info.host, info);
+                    for (String member : info.members) {
+                        known.remove(member, info);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks a class up through its nest, in memory first and then on disk.
+     */
+    private static String cachedNestSource(ClassPath index, String className, String variant) throws Exception {
+        NestKey key = nestKey(index, className, variant);
+        return cachedSource(key.host, key.hostBytes, key.variant);
+    }
+
+    private interface HostDecompiler {
+        String decompile(String host) throws Exception;
+    }
+
+    /**
+     * Decompiles the top-level class of {@code className}'s nest, which prints the class and all
+     * of its inner classes, so every member of the nest is served by that one run. Threads asking
+     * for classes of a nest that is being decompiled wait for it, but no longer than the decompile
+     * timeout: the decompilers ignore interrupts, so a hung run is left behind and the next
+     * request starts over. Without {@code join} the nest is decompiled here whatever else is running.
+     */
+    private static String nestSource(ClassPath index, String className, String variant, AppSettings settings,
+                                     boolean join, HostDecompiler decompiler) throws Exception {
+        NestKey key = nestKey(index, className, variant);
+        String source = cachedSource(key.host, key.hostBytes, key.variant);
+        if (source != null) return source;
+        if (!join) {
+            source = decompiler.decompile(key.host);
+            cacheSource(key.host, key.hostBytes, key.variant, source);
+            return source;
+        }
+
+        String runKey = runKey(index, key.host) + key.variant;
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = nestsInFlight.putIfAbsent(runKey, mine);
+        if (running != null) {
+            int timeoutSeconds = settings.getDecompileTimeoutSeconds();
+            try {
+                return timeoutSeconds > 0 ? running.get(timeoutSeconds, TimeUnit.SECONDS) : running.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            } catch (TimeoutException e) {
+                nestsInFlight.remove(runKey, running);
+                throw new TimeoutException("[!] " + key.host + " is still being decompiled after " + timeoutSeconds + "s");
+            }
+        }
+        try {
+            source = decompiler.decompile(key.host);
+            cacheSource(key.host, key.hostBytes, key.variant, source);
+            mine.complete(source);
+            return source;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            nestsInFlight.remove(runKey, mine);
+        }
+    }
     
-    public static String decompileWithCFR(JarIndex index, String className) throws Exception {
+    public static String decompileWithCFR(ClassPath index, String className) throws Exception {
         return decompileWithCFR(index, className, AppSettings.loadSettings());
     }
     
-    public static String decompileWithCFR(JarIndex index, String className, AppSettings settings) throws Exception {
-        byte[] classBytes = index.getClassBytes(className);
-
-        Map<String, String> options = new HashMap<>();
-        options.put("showversion", "false");
-        options.put("hidebridgemethods", "true");
-        options.put("hidelongstrings", "true");
-        options.put("decodestringswitch", "true");
-        options.put("sugarenums", "true");
-        options.put("decodelambdas", "true");
-        options.put("comments", "true");
-
-        final StringBuilder result = new StringBuilder();
+    public static String decompileWithCFR(ClassPath index, String className, AppSettings settings) throws Exception {
+        String decompiled = cfrSource(index, className, settings, true);
+        putNestCode(index, className, decompiled);
+        return decompiled;
+    }
+
+    /**
+     * CFR's source for a class, cached, without making it the class's decompiled code.
+     */
+    private static String cfrSource(ClassPath index, String className, AppSettings settings, boolean join) throws Exception {
+        return nestSource(index, className, cfrVariant(settings), settings, join, host -> {
+            Map<String, String> outputs = runCfr(index, Collections.singletonList(host));
+            // a nest without attributes may still come out under another name, so take whatever CFR produced
+            String output = outputs.containsKey(host) ? outputs.get(host) : String.join("", outputs.values());
+
+            String decompiled = "/* Decompiled with CFR x Sulfur */\n" + output;
+
+            // apply ZKM string deobfuscation if its enabled
+            if (settings.isZkmDeobfuscation()) {
+                decompiled = zkmDeobfuscator.get().process(decompiled);
+            }
+            return decompiled;
+        });
+    }
+    
+    /**
+     * Decompiles many classes with CFR in one driver session, so the class files they share are
+     * only loaded and analysed once. Cached sources are used where there are any.
+     *
+     * @return the source of every class CFR produced one for, by class name
+     */
+    public static Map<String, String> decompileAllWithCFR(ClassPath index, Collection<String> classNames, AppSettings settings) throws Exception {
+        String variant = cfrVariant(settings);
+        Map<String, String> sources = new LinkedHashMap<>();
+        Map<String, NestKey> keys = new LinkedHashMap<>();
+        // nests that are not cached, by their top-level class, which is all CFR is given
+        Map<String, NestKey> pending = new LinkedHashMap<>();
+        for (String className : classNames) {
+            NestKey key = nestKey(index, className, variant);
+            keys.put(className, key);
+            String cached = cachedSource(key.host, key.hostBytes, key.variant);
+            if (cached != null) {
+                sources.put(className, cached);
+            } else {
+                pending.putIfAbsent(key.host, key);
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            Map<String, String> outputs = runCfr(index, new ArrayList<>(pending.keySet()));
+            Map<String, String> hostSources = new HashMap<>();
+            for (Map.Entry<String, String> output : outputs.entrySet()) {
+                NestKey key = pending.get(output.getKey());
+                if (key == null) continue;
+                String decompiled = "/* Decompiled with CFR x Sulfur */\n" + output.getValue();
+                if (settings.isZkmDeobfuscation()) {
+                    decompiled = zkmDeobfuscator.get().process(decompiled);
+                }
+                cacheSource(key.host, key.hostBytes, key.variant, decompiled);
+                hostSources.put(key.host, decompiled);
+            }
+            for (Map.Entry<String, NestKey> key : keys.entrySet()) {
+                String decompiled = hostSources.get(key.getValue().host);
+                if (decompiled != null) {
+                    sources.putIfAbsent(key.getKey(), decompiled);
+                }
+            }
+        }
+
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            index.putDecompiledCode(keys.get(source.getKey()).host, source.getValue());
+        }
+        return sources;
+    }
+
+    /**
+     * Decompiles a class with Procyon and CFR at the same time and returns the first source that
+     * is not an error. The slower backend keeps going in the background and its source is cached,
+     * so switching backends afterwards is instant.
+     *
+     * Once one backend has won most races, it starts alone and the other only follows if it is
+     * not done within twice its usual time, or fails.
+     */
+    public static String decompileRacing(ClassPath index, String className, AppSettings settings) throws Exception {
+        int preferred = settings.isUseCfrDecompiler() ? CFR : PROCYON;
+        String[] cached = {
+                cachedNestSource(index, className, procyonVariant(settings)),
+                cachedNestSource(index, className, cfrVariant(settings)) };
+        for (int backend : new int[] { preferred, 1 - preferred }) {
+            if (cached[backend] != null && !cached[backend].startsWith("/* [!]")) {
+                putNestCode(index, className, cached[backend]);
+                return cached[backend];
+            }
+        }
+
+        // each backend decompiles on its own, one that waits on a run elsewhere is no alternative when that hangs
+        Race race = new Race(List.of(
+                () -> procyonSource(index, className, settings, false),
+                () -> cfrSource(index, className, settings, false)), preferred);
+        int leader = racesRun.incrementAndGet() % FULL_RACE_EVERY == 0 ? -1 : raceLeader();
+        if (leader < 0) {
+            race.start(preferred);
+            race.start(1 - preferred);
+        } else {
+            race.start(leader);
+            long headStart = Math.max(50, 2 * raceStats[leader].averageMillis());
+            CompletableFuture.delayedExecutor(headStart, TimeUnit.MILLISECONDS, racePool).execute(() -> {
+                if (!race.first.isDone()) race.start(1 - leader);
+            });
+        }
+
+        String decompiled;
+        int timeoutSeconds = settings.getDecompileTimeoutSeconds();
+        try {
+            decompiled = timeoutSeconds > 0 ? race.first.get(timeoutSeconds, TimeUnit.SECONDS) : race.first.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } catch (TimeoutException e) {
+            race.cancel();
+            throw new TimeoutException("[!] Neither decompiler finished " + className + " within " + timeoutSeconds + "s");
+        }
+        putNestCode(index, className, decompiled);
+        return decompiled;
+    }
+
+    /**
+     * @return the backend that has won most races so far, or -1 while neither clearly does
+     */
+    private static int raceLeader() {
+        int total = raceStats[PROCYON].wins.get() + raceStats[CFR].wins.get();
+        if (total < RACES_BEFORE_ADAPTING) return -1;
+        for (int backend = 0; backend < raceStats.length; backend++) {
+            if (raceStats[backend].wins.get() >= total * LEADER_WIN_SHARE) return backend;
+        }
+        return -1;
+    }
+
+    /**
+     * @return a line per backend with its wins, average time and failures in race mode
+     */
+    public static String getRaceStatistics() {
+        int leader = raceLeader();
+        return raceStats[PROCYON] + "\n" + raceStats[CFR]
+                + (leader >= 0 ? "\n" + raceStats[leader].backend + " now starts first" : "");
+    }
+
+    /**
+     * Runs one CFR session over the given classes, reading them through the class path.
+     *
+     * @return CFR's output by the name of the class it printed
+     */
+    private static Map<String, String> runCfr(ClassPath index, List<String> classNames) {
+        final Map<String, String> outputs = new LinkedHashMap<>();
         OutputSinkFactory mySink = new OutputSinkFactory() {
             @Override
             public List<SinkClass> getSupportedSinks(SinkType sinkType, Collection<SinkClass> collection) {
+                if (sinkType == SinkType.JAVA && collection.contains(SinkClass.DECOMPILED)) {
+                    return Collections.singletonList(SinkClass.DECOMPILED);
+                }
                 return Collections.singletonList(SinkClass.STRING);
             }
 
             @Override
             public <T> Sink<T> getSink(SinkType sinkType, SinkClass sinkClass) {
-                return sinkType == SinkType.JAVA ? str -> result.append(str) : ignored -> {};
+                if (sinkType != SinkType.JAVA || sinkClass != SinkClass.DECOMPILED) {
+                    return ignored -> {};
+                }
+                return sinkable -> {
+                    SinkReturns.Decompiled decompiled = (SinkReturns.Decompiled) sinkable;
+                    String pkg = decompiled.getPackageName();
+                    String name = pkg == null || pkg.isEmpty() ? decompiled.getClassName() : pkg + "." + decompiled.getClassName();
+                    outputs.merge(name, decompiled.getJava(), String::concat);
+                };
             }
         };
 
         CfrDriver driver = new CfrDriver.Builder()
+                .withClassFileSource(new ClassPathClassFileSource(index))
                 .withOutputSink(mySink)
-                .withOptions(options)
+                .withOptions(CFR_OPTIONS)
                 .build();
 
-        driver.analyse(Collections.singletonList(className + ".class"));
-        
-        String decompiled = "/* Decompiled with CFR x Sulfur */\n" + result.toString();
-        
-        // apply ZKM string deobfuscation if its enabled
-        if (settings.isZkmDeobfuscation()) {
-            decompiled = zkmDeobfuscator.process(decompiled);
+        List<String> paths = new ArrayList<>(classNames.size());
+        for (String className : classNames) {
+            paths.add(ClassPathClassFileSource.pathOf(className));
         }
-        
-        index.putDecompiledCode(className, decompiled);
-        return decompiled;
+        driver.analyse(paths);
+        return outputs;
     }
-    
-    private static String decompileWithProcyon(byte[] classBytes, String className) {
+
+    private static String decompileWithProcyon(ClassPath index, String className) {
         try {
             DecompilerSettings settings = DecompilerSettings.javaDefaults();
             settings.setForceExplicitImports(true);
@@ -129,20 +747,7 @@ public class DecompilerService {
             settings.setShowSyntheticMembers(false);
             settings.setJavaFormattingOptions(JavaFormattingOptions.createDefault());
 
-            ITypeLoader typeLoader = new InputTypeLoader() {
-                @Override
-                public boolean tryLoadType(String internalName, Buffer buffer) {
-                    if (internalName.equals(className.replace('.', '/'))) {
-                        buffer.reset(classBytes.length);
-                        buffer.putByteArray(classBytes, 0, classBytes.length);
-                        buffer.position(0);
-                        return true;
-                    }
-                    return false;
-                }
-            };
-
-            MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
+            MetadataSystem metadataSystem = metadataFor(index);
 
             String internalName = className.replace('.', '/');
             TypeReference type = metadataSystem.lookupType(internalName);
@@ -0,0 +1,246 @@
+package com.sulfur.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decompiled sources kept on disk between sessions, one gzipped file per class bytes, backend
+ * and options (see {@link DecompilationCache#variant}), so reopening the same archive does not
+ * pay for decompiling it again.
+ *
+ * Several sulfur instances can share the directory: files are written to a temp file and moved
+ * into place, so readers see a whole file or none, and only one instance prunes at a time.
+ * Reading a source touches its file, pruning removes the least recently touched files first.
+ */
+public class DiskSourceCache {
+    private static final String SUFFIX = ".java.gz";
+    private static final String LOCK_FILE = "prune.lock";
+    // pruning goes a bit below the cap, so it does not run again on the next few writes
+    private static final double PRUNE_TARGET = 0.8;
+
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "sulfur-source-cache");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final Path directory;
+    private volatile long capacity;
+    // what this instance thinks the directory holds, recounted on every prune
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public DiskSourceCache(Path directory, long capacity) throws IOException {
+        this.directory = directory;
+        this.capacity = capacity;
+        Files.createDirectories(directory);
+        // the first prune also counts what earlier sessions left behind
+        BACKGROUND.execute(this::prune);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+        BACKGROUND.execute(this::prune);
+    }
+
+    /**
+     * @return the source stored for these bytes and variant, or null
+     */
+    public String get(byte[] classBytes, String variant) {
+        Path file = fileFor(classBytes, variant);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            String source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            hits.incrementAndGet();
+            touch(file);
+            return source;
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            // a truncated file from a crashed writer, or pruned while we read it
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores a source in the background.
+     */
+    public void putLater(byte[] classBytes, String variant, String source) {
+        Path file = fileFor(classBytes, variant);
+        BACKGROUND.execute(() -> {
+            try {
+                put(file, source);
+            } catch (IOException e) {
+                System.err.println("[!] Could not write cached source " + file + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Waits until every source queued by {@link #putLater} so far is on disk. The writer is a
+     * daemon thread, so anything still queued when the JVM exits is lost.
+     */
+    public void flush() throws InterruptedException {
+        try {
+            // the writer runs tasks in order, once this one ran everything before it has too
+            BACKGROUND.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void put(Path file, String source) throws IOException {
+        if (Files.exists(file)) {
+            touch(file);
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), "source", ".tmp");
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                out.write(source.getBytes(StandardCharsets.UTF_8));
+            }
+            long written = Files.size(tmp);
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (size.addAndGet(written) > capacity) {
+                prune();
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // pruned meanwhile, or read-only, either way the source was served
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the directory is back under its cap.
+     */
+    private void prune() {
+        try (FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            // another instance is pruning the same directory already
+            if (lock == null) return;
+
+            List<Path> files = new ArrayList<>();
+            List<BasicFileAttributes> attributes = new ArrayList<>();
+            long total = 0;
+            try (Stream<Path> walk = Files.walk(directory, 2)) {
+                for (Path file : (Iterable<Path>) walk::iterator) {
+                    if (!file.getFileName().toString().endsWith(SUFFIX)) continue;
+                    try {
+                        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                        files.add(file);
+                        attributes.add(attrs);
+                        total += attrs.size();
+                    } catch (IOException ignored) {
+                        // deleted by another instance while we walked
+                    }
+                }
+            }
+            if (total > capacity) {
+                Integer[] order = new Integer[files.size()];
+                for (int i = 0; i < order.length; i++) order[i] = i;
+                Arrays.sort(order, Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+                long target = (long) (capacity * PRUNE_TARGET);
+                for (int i = 0; i < order.length && total > target; i++) {
+                    try {
+                        Files.deleteIfExists(files.get(order[i]));
+                        total -= attributes.get(order[i]).size();
+                    } catch (IOException ignored) {
+                        // still open somewhere, it goes on the next prune
+                    }
+                }
+            }
+            size.set(total);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("[!] Could not prune source cache " + directory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes every cached source.
+     */
+    public void clear() {
+        BACKGROUND.execute(() -> {
+            try (DirectoryStream<Path> shards = Files.newDirectoryStream(directory, Files::isDirectory)) {
+                for (Path shard : shards) {
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(shard, "*" + SUFFIX)) {
+                        for (Path file : files) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+                size.set(0);
+            } catch (IOException e) {
+                System.err.println("[!] Could not clear source cache " + directory + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private Path fileFor(byte[] classBytes, String variant) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            sha1.update(classBytes);
+            sha1.update(variant.getBytes(StandardCharsets.UTF_8));
+            String hex = HexFormat.of().formatHex(sha1.digest());
+            // sharded by the first byte, so no directory grows too large to list
+            return directory.resolve(hex.substring(0, 2)).resolve(hex.substring(2) + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        long lookups = hits.get() + misses.get();
+        return directory + ", " + (size.get() / 1024) + "/" + (capacity / 1024) + " KB, "
+                + hits.get() + " hits, " + misses.get() + " misses"
+                + (lookups > 0 ? " (" + (hits.get() * 100 / lookups) + "% hit rate)" : "");
+    }
+}
@@ -0,0 +1,286 @@
+package com.sulfur.core;
+
+import com.sulfur.config.AppSettings;
+import com.sulfur.core.archive.MappedZipReader;
+import com.sulfur.core.archive.MappedZipReader.CentralDirectory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * On-disk copy of everything {@link JarIndex} works out about an archive: the central
+ * directories of the archive and its nested jars, which entry every class lives in and, once
+ * something asked for it, the class hierarchy. Reopening an unchanged jar restores the index from here instead of
+ * parsing and scanning it again.
+ *
+ * A snapshot is matched by path, size and modification time when loading. The hash of the
+ * central directory is checked afterwards in the background, and a snapshot that turns out
+ * to be stale is thrown away and rebuilt.
+ */
+public class IndexSnapshot {
+    private static final int MAGIC = 0x53554c46; // "SULF"
+    private static final int VERSION = 4;
+
+    // one thread is plenty, this is all disk bound and must never compete with the UI
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "sulfur-index-snapshot");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private static volatile Path directory = AppSettings.getSettingsDirectory().resolve("sulfur_index");
+
+    final Path jar;
+    final long size;
+    final long lastModified;
+    final CentralDirectory centralDirectory;
+    final String classRoot;
+    final Map<String, CentralDirectory> libraries;
+    final String[] classEntries;
+    // how much of each entry name is the root it lives under, BOOT-INF/classes/ and such
+    final int[] classRootLengths;
+    // index into the library list, -1 for classes of the archive itself
+    final int[] classLibraries;
+    final Map<String, JarIndex.ReleaseVariants> releaseVariants;
+    final ClassHierarchy hierarchy;
+
+    private IndexSnapshot(Path jar, long size, long lastModified, CentralDirectory centralDirectory, String classRoot,
+                          Map<String, CentralDirectory> libraries, String[] classEntries, int[] classRootLengths,
+                          int[] classLibraries, Map<String, JarIndex.ReleaseVariants> releaseVariants,
+                          ClassHierarchy hierarchy) {
+        this.jar = jar;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.centralDirectory = centralDirectory;
+        this.classRoot = classRoot;
+        this.libraries = libraries;
+        this.classEntries = classEntries;
+        this.classRootLengths = classRootLengths;
+        this.classLibraries = classLibraries;
+        this.releaseVariants = releaseVariants;
+        this.hierarchy = hierarchy;
+    }
+
+    /**
+     * @param dir where snapshots are kept, or null to turn them off
+     */
+    public static void setDirectory(Path dir) {
+        directory = dir;
+    }
+
+    public static Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the snapshot for this exact path, size and modification time, or null if there is none
+     */
+    static IndexSnapshot load(Path jar, long size, long lastModified) {
+        Path file = fileFor(jar);
+        if (file == null || !Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            if (!in.readUTF().equals(jar.toAbsolutePath().toString()) || in.readLong() != size || in.readLong() != lastModified) {
+                return null;
+            }
+            CentralDirectory centralDirectory = CentralDirectory.read(in);
+            String classRoot = in.readUTF();
+
+            int libraryCount = in.readInt();
+            Map<String, CentralDirectory> libraries = new LinkedHashMap<>();
+            String[] libraryNames = new String[libraryCount];
+            for (int i = 0; i < libraryCount; i++) {
+                libraryNames[i] = in.readUTF();
+                libraries.put(libraryNames[i], CentralDirectory.read(in));
+            }
+
+            int classCount = in.readInt();
+            String[] classEntries = new String[classCount];
+            int[] classRootLengths = new int[classCount];
+            int[] classLibraries = new int[classCount];
+            for (int i = 0; i < classCount; i++) {
+                classEntries[i] = in.readUTF();
+                classRootLengths[i] = in.readUnsignedShort();
+                classLibraries[i] = in.readInt();
+            }
+            int variantCount = in.readInt();
+            Map<String, JarIndex.ReleaseVariants> releaseVariants = new HashMap<>();
+            for (int i = 0; i < variantCount; i++) {
+                String className = in.readUTF();
+                JarIndex.ReleaseVariants variants = new JarIndex.ReleaseVariants();
+                int count = in.readUnsignedShort();
+                for (int j = 0; j < count; j++) {
+                    variants.add(in.readInt(), in.readUTF());
+                }
+                releaseVariants.put(className, variants);
+            }
+            ClassHierarchy hierarchy = in.readBoolean() ? ClassHierarchy.read(in) : null;
+            return new IndexSnapshot(jar, size, lastModified, centralDirectory, classRoot, libraries,
+                    classEntries, classRootLengths, classLibraries, releaseVariants, hierarchy);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[!] Ignoring unreadable index snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot for a freshly indexed archive in the background, again once its class
+     * hierarchy has been worked out.
+     */
+    static void saveLater(JarIndex index) {
+        if (directory == null) return;
+        BACKGROUND.execute(() -> save(index));
+    }
+
+    /**
+     * Compares the central directory hash of the archive with the one the index was restored
+     * from. On a mismatch the index is marked stale and the snapshot is rebuilt from scratch.
+     */
+    static void validateLater(JarIndex index, IndexSnapshot snapshot) {
+        BACKGROUND.execute(() -> {
+            try {
+                byte[] actual = MappedZipReader.digestCentralDirectory(MappedZipReader.map(snapshot.jar));
+                if (Arrays.equals(actual, snapshot.centralDirectory.getDigest())) {
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("[!] Could not validate index snapshot for " + snapshot.jar + ": " + e.getMessage());
+            }
+            index.markStale();
+            delete(snapshot.jar);
+            try (JarIndex fresh = JarIndex.indexArchive(snapshot.jar, false)) {
+                save(fresh);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[!] Could not rebuild index snapshot for " + snapshot.jar + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private static void save(JarIndex index) {
+        Path jar = index.getJarPath();
+        Path file = fileFor(jar);
+        if (file == null) return;
+        try {
+            CentralDirectory centralDirectory = index.getCentralDirectory();
+            if (centralDirectory == null || index.isClosed()) {
+                return;
+            }
+            // a snapshot is reused as is, it must not remember a hierarchy with classes missing from it
+            ClassHierarchy hierarchy = index.peekHierarchy();
+            if (hierarchy != null && !hierarchy.isComplete()) {
+                hierarchy = null;
+            }
+            // the archive may have been rewritten while we were busy, that snapshot would be wrong
+            if (Files.size(jar) != index.getOpenedSize() || Files.getLastModifiedTime(jar).toMillis() != index.getOpenedLastModified()) {
+                return;
+            }
+
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                    write(index, centralDirectory, hierarchy, out);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[!] Could not write index snapshot for " + jar + ": " + e.getMessage());
+        }
+    }
+
+    private static void write(JarIndex index, CentralDirectory centralDirectory, ClassHierarchy hierarchy,
+                              DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(index.getJarPath().toAbsolutePath().toString());
+        out.writeLong(index.getOpenedSize());
+        out.writeLong(index.getOpenedLastModified());
+        centralDirectory.write(out);
+        out.writeUTF(index.getClassRoot());
+
+        Map<String, CentralDirectory> libraries = index.getLibraryDirectories();
+        Map<String, Integer> libraryIds = new LinkedHashMap<>();
+        out.writeInt(libraries.size());
+        for (Map.Entry<String, CentralDirectory> library : libraries.entrySet()) {
+            libraryIds.put(library.getKey(), libraryIds.size());
+            out.writeUTF(library.getKey());
+            library.getValue().write(out);
+        }
+
+        PackageTrie classes = index.getClassTable();
+        out.writeInt(classes.size());
+        IOException[] failure = new IOException[1];
+        classes.forEachClass((id, pkg, simpleName, library) -> {
+            if (failure[0] != null) return;
+            try {
+                out.writeUTF(classes.entryName(id));
+                out.writeShort(classes.entryRoot(id).length());
+                out.writeInt(library == null ? -1 : libraryIds.get(library));
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        Map<String, JarIndex.ReleaseVariants> releaseVariants = index.getReleaseVariants();
+        out.writeInt(releaseVariants.size());
+        for (Map.Entry<String, JarIndex.ReleaseVariants> entry : releaseVariants.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeShort(entry.getValue().releases.length);
+            for (int i = 0; i < entry.getValue().releases.length; i++) {
+                out.writeInt(entry.getValue().releases[i]);
+                out.writeUTF(entry.getValue().entries[i]);
+            }
+        }
+        out.writeBoolean(hierarchy != null);
+        if (hierarchy != null) {
+            hierarchy.write(out);
+        }
+    }
+
+    static void delete(Path jar) {
+        Path file = fileFor(jar);
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("[!] Could not delete index snapshot " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static Path fileFor(Path jar) {
+        Path dir = directory;
+        if (dir == null) return null;
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1")
+                    .digest(jar.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+            return dir.resolve(HexFormat.of().formatHex(hash, 0, 10) + ".idx");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+}
@@ -1,140 +1,1045 @@
 package com.sulfur.core;
     
+import com.sulfur.core.archive.ArchiveReader;
+import com.sulfur.core.archive.DirectoryReader;
+import com.sulfur.core.archive.DirectoryWatcher;
+import com.sulfur.core.archive.JarFileReader;
+import com.sulfur.core.archive.MappedZipReader;
+import com.sulfur.core.archive.ParallelZipWriter;
+
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.jar.JarEntry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
 import java.util.jar.JarFile;
+import java.util.jar.Manifest;
     
-    public class JarIndex {
+    public class JarIndex implements ClassPath, AutoCloseable {
+        // archives above this size are memory-mapped instead of going through java.util.jar
+        private static final long MAPPED_READER_THRESHOLD = 32L * 1024 * 1024;
+        private static final long DEFAULT_CLASS_CACHE_BYTES = 256L * 1024 * 1024;
+        private static final long DEFAULT_SOURCE_CACHE_CHARS = 64L * 1024 * 1024;
+        // above this many classes keeping every class file on the heap starts to hurt GC pauses
+        public static final int OFF_HEAP_CLASS_THRESHOLD = 100_000;
+        // where Spring Boot fat jars and wars keep the application's own classes
+        private static final String[] CLASS_ROOTS = { "BOOT-INF/classes/", "WEB-INF/classes/" };
+        // and their dependencies, other jars in an archive are test fixtures and resources
+        private static final String[] LIBRARY_ROOTS = { "BOOT-INF/lib/", "WEB-INF/lib/" };
+        private static final String VERSIONS_PREFIX = "META-INF/versions/";
+        // jmod files keep classes under classes/, next to bin/, conf/, lib/ and friends
+        private static final String JMOD_CLASS_ROOT = "classes/";
+        // entries in flight per compressor thread while saving, bounds the memory a save needs
+        private static final int SAVE_QUEUE_PER_THREAD = 16;
+        // classes handed to an index listener at a time while scanning
+        private static final int PUBLISH_BATCH = 1024;
+
+        /**
+         * Told about classes of a watched directory that were added, rewritten or deleted on disk.
+         * Called from the watcher thread.
+         */
+        public interface ChangeListener {
+            void onClassesChanged(Set<String> added, Set<String> changed, Set<String> removed);
+        }
+
+        /**
+         * Told about classes as an archive is scanned, so they can be shown before the scan is done.
+         * Called from the thread that opens the archive, with the ids of the new classes in
+         * {@link #getClassTable()}. Until the scan is done classes of multi-release jars read as their base version.
+         */
+        public interface IndexListener {
+            void classesIndexed(JarIndex index, int fromId, int toId);
+        }
+
         private final Path jarPath;
-        private final Map<String, String> classToEntry = new HashMap<>();
-        private final Map<String, byte[]> classCache = new HashMap<>();
-        private final Map<String, String> decompiledCodeCache = new HashMap<>();
+        // one shared reader for the lifetime of the index, safe to read from multiple threads
+        private final ArchiveReader archive;
+        // every class with its entry and, for classes of nested jars (BOOT-INF/lib/*.jar etc), that jar
+        private final PackageTrie classes = new PackageTrie();
+        // only set while the archive is being scanned
+        private IndexListener indexListener;
+        private int publishedClasses;
+        // nested jars are only opened when one of their classes is read
+        private final Map<String, ArchiveReader> libraries = new ConcurrentHashMap<>();
+        private final Map<String, MappedZipReader.CentralDirectory> libraryDirectories = new ConcurrentHashMap<>();
+        private String classRoot = "";
+        // size and modification time of the archive when it was opened, the key of its snapshot
+        private final long openedSize;
+        private final long openedLastModified;
+        private volatile ClassHierarchy hierarchy;
+        private final Object hierarchyLock = new Object();
+        // per-release variants of the classes of multi-release jars, the base entry stays in the trie
+        private final Map<String, ReleaseVariants> releaseVariants = new ConcurrentHashMap<>();
+        // entry picked for the target release, only for classes that have variants
+        private volatile Map<String, String> resolvedEntries = Collections.emptyMap();
+        private volatile int targetRelease = Runtime.version().feature();
+        private volatile boolean closed;
+        private volatile boolean stale;
+        private Runnable staleListener;
+        private final boolean jmod;
+        private DirectoryWatcher watcher;
+        private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+        private final AtomicLong generation = new AtomicLong();
+        // modified classes are pinned so they survive until saveModifiedJar writes them out
+        private final WeightedCache<String, byte[]> classCache = new WeightedCache<>(DEFAULT_CLASS_CACHE_BYTES, b -> b.length);
+        private final WeightedCache<String, String> decompiledCodeCache = new WeightedCache<>(DEFAULT_SOURCE_CACHE_CHARS, String::length);
+        private final Map<String, Integer> offHeapHandles = new ConcurrentHashMap<>();
+        private volatile OffHeapClassStore offHeapStore;
     
-        private JarIndex(Path jar) {
+        private JarIndex(Path jar, ArchiveReader archive, long size, long lastModified) {
             this.jarPath = jar;
+            this.archive = archive;
+            this.openedSize = size;
+            this.openedLastModified = lastModified;
+            this.jmod = jar.getFileName() != null && jar.getFileName().toString().endsWith(".jmod");
         }
     
         public static JarIndex fromJar(Path jar) throws IOException {
-            JarIndex idx = new JarIndex(jar);
-            try (JarFile jf = new JarFile(jar.toFile())) {
-                Enumeration<JarEntry> en = jf.entries();
-                while (en.hasMoreElements()) {
-                    JarEntry e = en.nextElement();
-                    if (e.isDirectory()) continue;
-                    if (!e.getName().endsWith(".class")) continue;
-                    String fqcn = e.getName()
-                            .replace('/', '.')
-                            .replaceAll("\\.class$", "");
-                    idx.classToEntry.put(fqcn, e.getName());
+            // signature checks are only useful when running the jar, not when browsing it
+            return fromJar(jar, false);
+        }
+
+        public static JarIndex fromJar(Path jar, boolean verify) throws IOException {
+            return fromJar(jar, verify, null);
+        }
+
+        /**
+         * Restores the index from its {@link IndexSnapshot} when the archive was seen before,
+         * otherwise scans it and writes a snapshot in the background.
+         *
+         * @param listener told about classes in batches while the archive is scanned, may be null
+         */
+        public static JarIndex fromJar(Path jar, boolean verify, IndexListener listener) throws IOException {
+            if (Files.isDirectory(jar)) {
+                return fromDirectory(jar, listener);
+            }
+            long size = Files.size(jar);
+            long lastModified = Files.getLastModifiedTime(jar).toMillis();
+            if (!verify && size <= Integer.MAX_VALUE) {
+                IndexSnapshot snapshot = IndexSnapshot.load(jar, size, lastModified);
+                if (snapshot != null) {
+                    try {
+                        JarIndex idx = fromSnapshot(snapshot);
+                        IndexSnapshot.validateLater(idx, snapshot);
+                        // nothing to stream, the whole table is there at once
+                        if (listener != null) {
+                            listener.classesIndexed(idx, 0, idx.classes.idLimit());
+                        }
+                        return idx;
+                    } catch (IOException e) {
+                        System.err.println("[!] Index snapshot unusable, rescanning " + jar + ": " + e.getMessage());
+                        IndexSnapshot.delete(jar);
+                    }
                 }
             }
+            JarIndex idx = indexArchive(jar, verify, listener);
+            IndexSnapshot.saveLater(idx);
             return idx;
         }
+
+        private static JarIndex fromSnapshot(IndexSnapshot snapshot) throws IOException {
+            JarIndex idx = new JarIndex(snapshot.jar, MappedZipReader.open(snapshot.jar, snapshot.centralDirectory),
+                    snapshot.size, snapshot.lastModified);
+            idx.classRoot = snapshot.classRoot;
+            idx.libraryDirectories.putAll(snapshot.libraries);
+            String[] libraryNames = snapshot.libraries.keySet().toArray(new String[0]);
+            for (int i = 0; i < snapshot.classEntries.length; i++) {
+                int library = snapshot.classLibraries[i];
+                idx.classes.add(snapshot.classEntries[i], snapshot.classRootLengths[i], library >= 0 ? libraryNames[library] : null);
+            }
+            idx.releaseVariants.putAll(snapshot.releaseVariants);
+            idx.hierarchy = snapshot.hierarchy;
+            idx.resolveReleases();
+            return idx;
+        }
+
+        /**
+         * Indexes an exploded directory (a classes/ output, an unpacked war) and keeps watching it,
+         * so rebuilt class files are picked up one by one instead of reopening everything.
+         */
+        public static JarIndex fromDirectory(Path dir) throws IOException {
+            return fromDirectory(dir, null);
+        }
+
+        public static JarIndex fromDirectory(Path dir, IndexListener listener) throws IOException {
+            DirectoryReader reader = new DirectoryReader(dir);
+            JarIndex idx = new JarIndex(dir, reader, 0, Files.getLastModifiedTime(dir).toMillis());
+            try {
+                idx.indexAll(listener);
+                idx.watcher = new DirectoryWatcher(reader, idx::applyDirectoryChanges);
+            } catch (IOException | RuntimeException ex) {
+                idx.close();
+                throw ex;
+            }
+            return idx;
+        }
+
+        /**
+         * Scans the archive and its nested jars, without looking at or writing a snapshot.
+         */
+        static JarIndex indexArchive(Path jar, boolean verify) throws IOException {
+            return indexArchive(jar, verify, null);
+        }
+
+        private static JarIndex indexArchive(Path jar, boolean verify, IndexListener listener) throws IOException {
+            long size = Files.size(jar);
+            long lastModified = Files.getLastModifiedTime(jar).toMillis();
+            JarIndex idx = new JarIndex(jar, openArchive(jar, verify), size, lastModified);
+            try {
+                idx.indexAll(listener);
+            } catch (RuntimeException ex) {
+                idx.close();
+                throw ex;
+            }
+            return idx;
+        }
+
+        private void indexAll(IndexListener listener) {
+            indexListener = listener;
+            try {
+                // the application's own classes go first, so they win over a library copy of the same class
+                indexEntries(archive, null);
+                Set<String> declared = new HashSet<>();
+                List<String> libraryRoots = libraryRoots(declared);
+                for (String name : archive.entryNames()) {
+                    if (name.endsWith(".jar") && (declared.contains(name) || startsWithAny(name, libraryRoots))) {
+                        indexLibrary(name);
+                    }
+                }
+                Map<String, String> shown = resolvedEntries;
+                resolveReleases();
+                if (listener != null) {
+                    // classes read while the scan was shown may have come from a variant that a later one replaced
+                    for (String className : releaseVariants.keySet()) {
+                        if (!Objects.equals(shown.get(className), resolvedEntries.get(className))) {
+                            invalidate(className);
+                        }
+                    }
+                }
+                publishClasses(true);
+            } finally {
+                indexListener = null;
+            }
+        }
+
+        /**
+         * Hands the classes added since the last call to the index listener, once there are enough of them.
+         */
+        private void publishClasses(boolean force) {
+            if (indexListener == null) return;
+            int limit = classes.idLimit();
+            if (limit == publishedClasses || (!force && limit - publishedClasses < PUBLISH_BATCH)) return;
+            int from = publishedClasses;
+            publishedClasses = limit;
+            // the listener may read these classes right away, so the variants seen so far have to count
+            if (!force) {
+                resolveReleases();
+            }
+            indexListener.classesIndexed(this, from, limit);
+        }
+
+        private void indexEntries(ArchiveReader reader, String library) {
+            Map<String, ReleaseVariants> variants = isMultiRelease(reader) ? new HashMap<>() : null;
+            for (String name : reader.entryNames()) {
+                if (name.endsWith("/")) continue;
+                if (!name.endsWith(".class")) continue;
+                if (variants != null && name.startsWith(VERSIONS_PREFIX)) {
+                    int slash = name.indexOf('/', VERSIONS_PREFIX.length());
+                    int release = slash < 0 ? -1 : parseRelease(name.substring(VERSIONS_PREFIX.length(), slash));
+                    if (release > 0) {
+                        variants.computeIfAbsent(toClassName(name.substring(slash + 1)), k -> new ReleaseVariants())
+                                .add(release, name);
+                        continue;
+                    }
+                }
+                classes.add(name, library == null ? classRootOf(name).length() : 0, library);
+                publishClasses(false);
+            }
+
+            if (variants == null) return;
+            for (Map.Entry<String, ReleaseVariants> entry : variants.entrySet()) {
+                String fqcn = entry.getKey();
+                ReleaseVariants versions = entry.getValue();
+                // a class that only exists for newer releases is still listed, with its oldest variant as base
+                String base = versions.entries[0];
+                classes.add(base, base.indexOf('/', VERSIONS_PREFIX.length()) + 1, library);
+                // variants belong to whichever archive won the class
+                if (Objects.equals(classes.library(classes.find(fqcn)), library)) {
+                    releaseVariants.put(fqcn, versions);
+                }
+            }
+        }
+
+        /**
+         * @return the root a top-level class entry lives under, empty if it is at the top of the archive
+         */
+        private String classRootOf(String name) {
+            if (jmod) {
+                if (name.startsWith(JMOD_CLASS_ROOT)) {
+                    classRoot = JMOD_CLASS_ROOT;
+                    return JMOD_CLASS_ROOT;
+                }
+                return "";
+            }
+            for (String root : CLASS_ROOTS) {
+                if (name.startsWith(root)) {
+                    classRoot = root;
+                    return root;
+                }
+            }
+            return "";
+        }
+
+        private static String toClassName(String path) {
+            return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+        }
+
+        private static int parseRelease(String version) {
+            try {
+                return Integer.parseInt(version);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private static boolean isMultiRelease(ArchiveReader reader) {
+            Manifest manifest = readManifest(reader);
+            return manifest != null && "true".equalsIgnoreCase(manifest.getMainAttributes().getValue("Multi-Release"));
+        }
+
+        private static Manifest readManifest(ArchiveReader reader) {
+            if (!reader.hasEntry(JarFile.MANIFEST_NAME)) {
+                return null;
+            }
+            try {
+                return new Manifest(new ByteArrayInputStream(reader.readEntry(JarFile.MANIFEST_NAME)));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @param declared filled with the nested jars the manifest lists one by one, like Eclipse's
+         *                 jar-in-jar loader does
+         * @return the folders whose jars are libraries: the fat jar and war ones, plus the one the
+         *         manifest names
+         */
+        private List<String> libraryRoots(Set<String> declared) {
+            List<String> roots = new ArrayList<>(List.of(LIBRARY_ROOTS));
+            Manifest manifest = readManifest(archive);
+            if (manifest == null) return roots;
+            Attributes main = manifest.getMainAttributes();
+            String bootLib = main.getValue("Spring-Boot-Lib");
+            if (bootLib != null && !bootLib.isBlank()) {
+                roots.add(bootLib.endsWith("/") ? bootLib : bootLib + "/");
+            }
+            for (String attribute : new String[] { "Rsrc-Class-Path", "Class-Path" }) {
+                String value = main.getValue(attribute);
+                if (value == null) continue;
+                for (String path : value.trim().split("\\s+")) {
+                    declared.add(path.startsWith("./") ? path.substring(2) : path);
+                }
+            }
+            return roots;
+        }
+
+        private static boolean startsWithAny(String name, List<String> prefixes) {
+            for (String prefix : prefixes) {
+                if (name.startsWith(prefix)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Releases and entry names of the versioned copies of one class, sorted by release.
+         */
+        static final class ReleaseVariants {
+            int[] releases = new int[0];
+            String[] entries = new String[0];
+
+            void add(int release, String entry) {
+                int pos = 0;
+                while (pos < releases.length && releases[pos] < release) pos++;
+                int[] newReleases = new int[releases.length + 1];
+                String[] newEntries = new String[entries.length + 1];
+                System.arraycopy(releases, 0, newReleases, 0, pos);
+                System.arraycopy(entries, 0, newEntries, 0, pos);
+                newReleases[pos] = release;
+                newEntries[pos] = entry;
+                System.arraycopy(releases, pos, newReleases, pos + 1, releases.length - pos);
+                System.arraycopy(entries, pos, newEntries, pos + 1, entries.length - pos);
+                releases = newReleases;
+                entries = newEntries;
+            }
+
+            /**
+             * @return the entry of the newest variant not newer than the given release, or null if there is none
+             */
+            String resolve(int release) {
+                for (int i = releases.length - 1; i >= 0; i--) {
+                    if (releases[i] <= release) {
+                        return entries[i];
+                    }
+                }
+                return null;
+            }
+        }
+
+        private void resolveReleases() {
+            Map<String, String> resolved = new HashMap<>();
+            for (Map.Entry<String, ReleaseVariants> entry : releaseVariants.entrySet()) {
+                String variant = entry.getValue().resolve(targetRelease);
+                if (variant != null) {
+                    resolved.put(entry.getKey(), variant);
+                }
+            }
+            resolvedEntries = resolved;
+        }
+
+        /**
+         * @return the entry a class is read from for the current target release
+         */
+        private String entryFor(String className) {
+            String resolved = resolvedEntries.get(className);
+            if (resolved != null) {
+                return resolved;
+            }
+            int id = classes.find(className);
+            return id < 0 ? null : classes.entryName(id);
+        }
+
+        /**
+         * Picks which variant of multi-release classes is read, the way a JVM of that release would.
+         * Defaults to the release sulfur runs on.
+         */
+        public void setTargetRelease(int release) {
+            if (release == targetRelease) return;
+            targetRelease = release;
+            resolveReleases();
+            // whatever was cached for classes with variants may be the wrong version now
+            for (String className : releaseVariants.keySet()) {
+                invalidate(className);
+            }
+        }
+
+        /**
+         * Drops cached bytes and sources of a class, in-memory edits are kept.
+         */
+        private void invalidate(String className) {
+            if (!classCache.isPinned(className)) {
+                classCache.remove(className);
+            }
+            Integer handle = offHeapHandles.remove(className);
+            OffHeapClassStore store = offHeapStore;
+            if (handle != null && store != null) {
+                store.free(handle);
+            }
+            decompiledCodeCache.remove(className);
+            generation.incrementAndGet();
+            DecompilerService.classChanged(className);
+        }
+
+        @Override
+        public long getGeneration() {
+            return generation.get();
+        }
+
+        public void addChangeListener(ChangeListener listener) {
+            changeListeners.add(listener);
+        }
+
+        public void removeChangeListener(ChangeListener listener) {
+            changeListeners.remove(listener);
+        }
+
+        /**
+         * @return true for exploded directories, which are watched for changes
+         */
+        public boolean isDirectory() {
+            return archive instanceof DirectoryReader;
+        }
+
+        private void applyDirectoryChanges(Set<String> entryNames) {
+            DirectoryReader dir = (DirectoryReader) archive;
+            Set<String> added = new HashSet<>();
+            Set<String> changed = new HashSet<>();
+            Set<String> removed = new HashSet<>();
+            for (String name : entryNames) {
+                boolean exists = dir.refresh(name);
+                if (!name.endsWith(".class")) continue;
+
+                if (!releaseVariants.isEmpty() && name.startsWith(VERSIONS_PREFIX)) {
+                    // rewritten variants are picked up here, added or deleted ones only when reopening
+                    int slash = name.indexOf('/', VERSIONS_PREFIX.length());
+                    String fqcn = slash < 0 ? null : toClassName(name.substring(slash + 1));
+                    if (fqcn != null && releaseVariants.containsKey(fqcn)) {
+                        invalidate(fqcn);
+                        changed.add(fqcn);
+                    }
+                    continue;
+                }
+
+                int rootLength = classRootOf(name).length();
+                String fqcn = toClassName(name.substring(rootLength));
+                int id = classes.find(fqcn);
+                boolean fromLibrary = id >= 0 && classes.library(id) != null;
+                boolean ours = id >= 0 && !fromLibrary && name.equals(classes.entryName(id));
+                if (exists) {
+                    if (ours) {
+                        changed.add(fqcn);
+                    } else if (id < 0 || fromLibrary) {
+                        // a class of the directory itself always wins over a library copy
+                        classes.put(name, rootLength, null);
+                        (id < 0 ? added : changed).add(fqcn);
+                    } else {
+                        continue;
+                    }
+                } else if (ours) {
+                    classes.remove(fqcn);
+                    removed.add(fqcn);
+                } else {
+                    continue;
+                }
+                invalidate(fqcn);
+            }
+
+            if (!(added.isEmpty() && changed.isEmpty() && removed.isEmpty())) {
+                // rebuilt on the next use, any of them may have changed its super types
+                hierarchy = null;
+                for (ChangeListener listener : changeListeners) {
+                    listener.onClassesChanged(added, changed, removed);
+                }
+            }
+        }
+
+        public int getTargetRelease() {
+            return targetRelease;
+        }
+
+        public boolean isMultiRelease() {
+            return !releaseVariants.isEmpty();
+        }
+
+        /**
+         * @return the releases a class has a versioned copy for, empty for most classes
+         */
+        public int[] getVariantReleases(String className) {
+            ReleaseVariants variants = releaseVariants.get(className);
+            return variants == null ? new int[0] : variants.releases.clone();
+        }
+
+        Map<String, ReleaseVariants> getReleaseVariants() {
+            return Collections.unmodifiableMap(releaseVariants);
+        }
+
+        private void indexLibrary(String name) {
+            try {
+                // a STORED nested jar comes back as a slice of the outer archive, so its central
+                // directory is read in place; inner entries are only inflated when asked for
+                MappedZipReader nested = openLibrary(name, null);
+                libraryDirectories.put(name, nested.getCentralDirectory());
+                indexEntries(nested, name);
+                // anything else was inflated onto the heap just to list it, and is read again once
+                // one of its classes is wanted
+                if (isMappedLibrary(name)) {
+                    libraries.put(name, nested);
+                }
+            } catch (IOException e) {
+                System.err.println("[!] Skipping nested archive " + name + ": " + e.getMessage());
+            }
+        }
+
+        private ArchiveReader readerFor(String className) throws IOException {
+            int id = classes.find(className);
+            String library = id < 0 ? null : classes.library(id);
+            return library == null ? archive : library(library);
+        }
+
+        private ArchiveReader library(String name) throws IOException {
+            ArchiveReader reader = libraries.get(name);
+            if (reader != null) {
+                return reader;
+            }
+            synchronized (libraries) {
+                reader = libraries.get(name);
+                if (reader == null) {
+                    // restored from a snapshot, the central directory is already known
+                    reader = openLibrary(name, libraryDirectories.get(name));
+                    libraries.put(name, reader);
+                }
+                return reader;
+            }
+        }
+
+        private MappedZipReader openLibrary(String name, MappedZipReader.CentralDirectory cd) throws IOException {
+            if (archive instanceof DirectoryReader dir) {
+                // an unpacked war, the jar is a file of its own
+                Path file = dir.getRoot().resolve(name);
+                return cd != null ? MappedZipReader.open(file, cd) : MappedZipReader.open(file);
+            }
+            ByteBuffer data = archive.readEntryBuffer(name);
+            return cd != null ? new MappedZipReader(data, cd) : new MappedZipReader(data);
+        }
+
+        /**
+         * @return true if the nested jar is read without copying it onto the heap
+         */
+        private boolean isMappedLibrary(String name) throws IOException {
+            return archive instanceof DirectoryReader
+                    || (archive instanceof MappedZipReader mapped && mapped.entryMethod(name) == MappedZipReader.STORED);
+        }
+
+        private static ArchiveReader openArchive(Path jar, boolean verify) throws IOException {
+            // the mapped reader cannot check signatures, and small jars gain nothing from mapping
+            long size = Files.size(jar);
+            if (!verify && size >= MAPPED_READER_THRESHOLD && size <= Integer.MAX_VALUE) {
+                return MappedZipReader.open(jar);
+            }
+            return new JarFileReader(jar, verify);
+        }
         
+        @Override
         public Set<String> classNames() {
-            return Collections.unmodifiableSet(classToEntry.keySet());
+            return Collections.unmodifiableSet(classes.classNames());
         }
         
+        @Override
         public byte[] getClassBytes(String className) throws IOException {
-            if (classCache.containsKey(className)) {
-                return classCache.get(className);
+            byte[] cached = classCache.get(className);
+            if (cached != null) {
+                return cached;
             }
 
-            String entryName = classToEntry.get(className);
+            OffHeapClassStore store = offHeapStore;
+            if (store != null) {
+                Integer handle = offHeapHandles.get(className);
+                byte[] stored = handle != null ? store.read(handle) : null;
+                // freed when the class changed, it is read again below
+                if (stored != null) {
+                    return stored;
+                }
+            }
+
+            String entryName = entryFor(className);
             if (entryName == null) {
                 throw new IOException("[!] Class not found in .jar file: " + className);
             }
             
-            try (JarFile jf = new JarFile(jarPath.toFile())) {
-                JarEntry entry = jf.getJarEntry(entryName);
-                if (entry == null) {
-                    throw new IOException("[!] .jar file entry not found: " + entryName);
-                }
-                
-                byte[] bytes = readEntryBytes(jf, entry);
-                classCache.put(className, bytes);
+            byte[] bytes = readerFor(className).readEntry(entryName);
+            // with an off-heap store only the short-lived copy we return lives on the heap
+            if (store != null && offHeapHandles.computeIfAbsent(className, k -> {
+                int handle = store.store(bytes);
+                return handle < 0 ? null : handle;
+            }) != null) {
                 return bytes;
             }
+            classCache.put(className, bytes);
+            return bytes;
         }
 
-        public void putClassBytes(String className, byte[] newBytes) {
-            classCache.put(className, newBytes);
+        /**
+         * Same as {@link #getClassBytes(String)}, but classes held off-heap come back as a
+         * read-only view of the store instead of a copy.
+         */
+        public ByteBuffer getClassBuffer(String className) throws IOException {
+            OffHeapClassStore store = offHeapStore;
+            if (store != null && !classCache.isPinned(className)) {
+                Integer handle = offHeapHandles.get(className);
+                ByteBuffer view = handle != null ? store.view(handle) : null;
+                if (view != null) {
+                    return view;
+                }
+            }
+            return ByteBuffer.wrap(getClassBytes(className)).asReadOnlyBuffer();
+        }
+
+        /**
+         * Moves unmodified class bytes out of the heap cache into an off-heap store
+         * of the given size. Meant for archives with {@link #OFF_HEAP_CLASS_THRESHOLD}
+         * classes or more.
+         */
+        public synchronized void enableOffHeapStore(long capacityBytes) {
+            if (offHeapStore != null) return;
+            offHeapStore = new OffHeapClassStore(capacityBytes);
+            classCache.clear();
+        }
+
+        public OffHeapClassStore getOffHeapStore() {
+            return offHeapStore;
+        }
+
+        /**
+         * @return how many bytes of class files can be held in memory before anything is evicted or refused
+         */
+        public long getClassStorageCapacity() {
+            OffHeapClassStore store = offHeapStore;
+            return store != null ? store.getCapacity() : classCache.getCapacity();
+        }
+
+        /**
+         * @return the uncompressed size of a class, or -1 if the archive does not record it
+         */
+        public long getClassSize(String className) {
+            byte[] cached = classCache.peek(className);
+            if (cached != null) {
+                return cached.length;
+            }
+            String entryName = entryFor(className);
+            if (entryName == null) {
+                return -1;
+            }
+            try {
+                return readerFor(className).entrySize(entryName);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Reads a class as it is in the archive, skipping the caches and any in-memory edits.
+         */
+        byte[] readOriginalBytes(String className) throws IOException {
+            String entryName = entryFor(className);
+            if (entryName == null) {
+                throw new IOException("[!] Class not found in .jar file: " + className);
+            }
+            return readerFor(className).readEntry(entryName);
         }
 
-        private byte[] readEntryBytes(JarFile jf, JarEntry entry) throws IOException {
-            try (InputStream is = jf.getInputStream(entry)) {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = is.read(buffer)) != -1) {
-                    baos.write(buffer, 0, bytesRead);
+        /**
+         * Reads every class header the first time it is asked for, unless the snapshot had it.
+         *
+         * @return the class hierarchy, or null if the index was closed meanwhile
+         */
+        public ClassHierarchy getHierarchy() {
+            ClassHierarchy current = hierarchy;
+            if (current != null) {
+                return current;
+            }
+            synchronized (hierarchyLock) {
+                if (hierarchy == null) {
+                    ClassHierarchy built = ClassHierarchy.build(this);
+                    if (built == null) {
+                        return null;
+                    }
+                    hierarchy = built;
+                    // the snapshot was written without it, next time it comes for free
+                    if (built.isComplete()) {
+                        IndexSnapshot.saveLater(this);
+                    }
                 }
-                return baos.toByteArray();
+                return hierarchy;
             }
         }
+
+        /**
+         * @return the hierarchy if it has been worked out, without working it out
+         */
+        ClassHierarchy peekHierarchy() {
+            return hierarchy;
+        }
+
+        /**
+         * @return true if this index was restored from a snapshot that no longer matches the archive on disk
+         */
+        public boolean isStale() {
+            return stale;
+        }
+
+        /**
+         * Called at most once, from a background thread, when the snapshot this index came from turns out
+         * to be stale. Called right away if that is already known.
+         */
+        public void setStaleListener(Runnable listener) {
+            boolean notifyNow;
+            synchronized (this) {
+                staleListener = listener;
+                notifyNow = stale;
+            }
+            if (notifyNow) {
+                listener.run();
+            }
+        }
+
+        void markStale() {
+            Runnable listener;
+            synchronized (this) {
+                stale = true;
+                listener = staleListener;
+            }
+            if (listener != null) {
+                listener.run();
+            }
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        long getOpenedSize() {
+            return openedSize;
+        }
+
+        long getOpenedLastModified() {
+            return openedLastModified;
+        }
+
+        String getClassRoot() {
+            return classRoot;
+        }
+
+        /**
+         * @return the class names of this index, as a trie of packages
+         */
+        public PackageTrie getClassTable() {
+            return classes;
+        }
+
+        Map<String, MappedZipReader.CentralDirectory> getLibraryDirectories() {
+            return Collections.unmodifiableMap(libraryDirectories);
+        }
+
+        /**
+         * @return the parsed central directory of the archive, or null if it cannot be mapped
+         */
+        MappedZipReader.CentralDirectory getCentralDirectory() throws IOException {
+            if (archive instanceof MappedZipReader mapped) {
+                return mapped.getCentralDirectory();
+            }
+            if (openedSize > Integer.MAX_VALUE) {
+                return null;
+            }
+            return MappedZipReader.parse(MappedZipReader.map(jarPath));
+        }
+
+        /**
+         * @return the entry name of the nested jar a class comes from, or null for classes of the archive itself
+         */
+        @Override
+        public String getLibrary(String className) {
+            int id = classes.find(className);
+            return id < 0 ? null : classes.library(id);
+        }
+
+        public Set<String> libraryNames() {
+            return Collections.unmodifiableSet(libraryDirectories.keySet());
+        }
+
+        @Override
+        public void putClassBytes(String className, byte[] newBytes) {
+            classCache.putPinned(className, newBytes);
+            decompiledCodeCache.remove(className);
+            generation.incrementAndGet();
+            DecompilerService.classChanged(className);
+        }
+
+        public boolean isModified(String className) {
+            return classCache.isPinned(className);
+        }
+
+        /**
+         * @param classBytes maximum size of cached class files, in bytes
+         * @param sourceChars maximum size of cached decompiled sources, in chars
+         */
+        public void setCacheCapacity(long classBytes, long sourceChars) {
+            classCache.setCapacity(classBytes);
+            decompiledCodeCache.setCapacity(sourceChars);
+        }
+
+        public WeightedCache<String, byte[]> getClassCache() {
+            return classCache;
+        }
+
+        public WeightedCache<String, String> getDecompiledCodeCache() {
+            return decompiledCodeCache;
+        }
+
+        /**
+         * Puts this index's caches under budgets shared with other indexes, see {@link Workspace}.
+         */
+        public void shareCacheBudget(WeightedCache.SharedBudget classBudget, WeightedCache.SharedBudget sourceBudget) {
+            classCache.joinBudget(classBudget);
+            decompiledCodeCache.joinBudget(sourceBudget);
+        }
+
         
         public Path getJarPath() {
             return jarPath;
         }
 
+        @Override
         public void putDecompiledCode(String className, String decompiledCode) {
             this.decompiledCodeCache.put(className, decompiledCode);
         }
 
+        /**
+         * Nested classes have no code of their own, they resolve to their top-level class's.
+         */
+        @Override
         public String getDecompiledCode(String className) {
-            return this.decompiledCodeCache.get(className);
+            String code = this.decompiledCodeCache.get(className);
+            if (code == null) {
+                String host = DecompilerService.knownNestHost(this, className);
+                if (host != null && !host.equals(className)) {
+                    code = this.decompiledCodeCache.get(host);
+                }
+            }
+            return code;
+        }
+
+        /**
+         * Sorts the in-memory edits by the archive they belong to, keyed by entry name: edits of the
+         * archive itself go into {@code replacements}, edits of nested jars into {@code nestedReplacements}.
+         */
+        void collectEdits(Map<String, byte[]> replacements, Map<String, Map<String, byte[]>> nestedReplacements) {
+            for (Map.Entry<String, byte[]> entry : classCache.pinnedEntries().entrySet()) {
+                String className = entry.getKey();
+                // edits go to the variant that was shown, which depends on the target release
+                String entryName = entryFor(className);
+                if (entryName == null) {
+                    replacements.put(classRoot + className.replace('.', '/') + ".class", entry.getValue());
+                    continue;
+                }
+                String library = getLibrary(className);
+                if (library == null) {
+                    replacements.put(entryName, entry.getValue());
+                } else {
+                    nestedReplacements.computeIfAbsent(library, k -> new HashMap<>()).put(entryName, entry.getValue());
+                }
+            }
+        }
+
+        /**
+         * Writes only the edited classes as a small overlay, see {@link ArchivePatch}.
+         */
+        public void saveModifiedPatch(Path outputPath) throws IOException {
+            if (isDirectory()) {
+                throw new IOException("[!] Patches can only be made for archives, not directories");
+            }
+            ArchivePatch.write(this, outputPath);
         }
 
         public void saveModifiedJar(Path outputPath) throws IOException {
-            try (JarFile originalJar = new JarFile(jarPath.toFile());
-                 java.util.jar.JarOutputStream jos = new java.util.jar.JarOutputStream(new java.io.FileOutputStream(outputPath.toFile()))) {
-
-                Enumeration<JarEntry> entries = originalJar.entries();
-                while (entries.hasMoreElements()) {
-                    JarEntry entry = entries.nextElement();
-                    String entryName = entry.getName();
-                    String fqcn = entryName.replace('/', '.').replaceAll("\\.class$", "");
-
-                    if (entryName.endsWith(".class") && classCache.containsKey(fqcn)) {
-                        jos.putNextEntry(new JarEntry(entryName));
-                        jos.write(classCache.get(fqcn));
-                    } else {
-                        jos.putNextEntry(new JarEntry(entryName));
-                        try (InputStream is = originalJar.getInputStream(entry)) {
-                            byte[] buffer = new byte[8192];
-                            int bytesRead;
-                            while ((bytesRead = is.read(buffer)) != -1) {
-                                jos.write(buffer, 0, bytesRead);
-                            }
-                        }
-                    }
-                    jos.closeEntry();
+            Map<String, byte[]> replacements = new HashMap<>();
+            Map<String, Map<String, byte[]>> nestedReplacements = new HashMap<>();
+            collectEdits(replacements, nestedReplacements);
+
+            // java.util.jar cannot hand out compressed bytes, so small jars are mapped just for copying
+            ArchiveReader source = archive;
+            MappedZipReader mappedCopy = null;
+            if (!(archive instanceof MappedZipReader) && !isDirectory() && openedSize <= Integer.MAX_VALUE
+                    && Files.size(jarPath) == openedSize && Files.getLastModifiedTime(jarPath).toMillis() == openedLastModified) {
+                source = mappedCopy = MappedZipReader.open(jarPath);
+            }
+
+            // written next to the target and moved over it, the target may be the archive we are reading from
+            Path target = outputPath.toAbsolutePath();
+            Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            int threads = Runtime.getRuntime().availableProcessors();
+            ExecutorService compressors = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "sulfur-zip-compressor");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                     ParallelZipWriter zip = new ParallelZipWriter(channel, compressors, threads * SAVE_QUEUE_PER_THREAD)) {
+                    writeArchive(source, replacements, nestedReplacements, zip, compressors);
                 }
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                compressors.shutdownNow();
+                Files.deleteIfExists(tmp);
+                if (mappedCopy != null) {
+                    mappedCopy.close();
+                }
+            }
+        }
+
+        private void writeArchive(ArchiveReader reader, Map<String, byte[]> replacements,
+                                  Map<String, Map<String, byte[]>> nestedReplacements, ParallelZipWriter zip,
+                                  ExecutorService compressors) throws IOException {
+            for (String entryName : reader.entryNames()) {
+                byte[] replacement = replacements.get(entryName);
+                Map<String, byte[]> nestedEdits = nestedReplacements.get(entryName);
 
-                for (Map.Entry<String, byte[]> entry : classCache.entrySet()) {
-                    String className = entry.getKey();
-                    if (!classToEntry.containsKey(className)) {
-                        String entryName = className.replace('.', '/') + ".class";
-                        jos.putNextEntry(new JarEntry(entryName));
-                        jos.write(entry.getValue());
-                        jos.closeEntry();
+                if (nestedEdits != null) {
+                    ByteArrayOutputStream nestedOut = new ByteArrayOutputStream();
+                    try (ParallelZipWriter nestedZip = new ParallelZipWriter(Channels.newChannel(nestedOut), compressors,
+                            SAVE_QUEUE_PER_THREAD)) {
+                        writeArchive(library(entryName), nestedEdits, Collections.emptyMap(), nestedZip, compressors);
                     }
+                    // launchers like Spring Boot's need nested jars uncompressed
+                    zip.writeStored(entryName, nestedOut.toByteArray());
+                } else if (replacement != null) {
+                    zip.writeDeflated(entryName, replacement);
+                } else {
+                    copyEntry(reader, entryName, zip);
+                }
+            }
+
+            for (Map.Entry<String, byte[]> entry : replacements.entrySet()) {
+                if (!reader.hasEntry(entry.getKey())) {
+                    zip.writeDeflated(entry.getKey(), entry.getValue());
                 }
             }
         }
 
+        /**
+         * Unchanged entries of a zip are copied still compressed, with their CRC, sizes and time.
+         */
+        private static void copyEntry(ArchiveReader reader, String entryName, ParallelZipWriter zip) throws IOException {
+            if (reader instanceof MappedZipReader mapped) {
+                zip.writeRaw(entryName, mapped.entryMethod(entryName), mapped.entryDosTime(entryName),
+                        mapped.entryCrc(entryName), mapped.entrySize(entryName), mapped.rawEntryData(entryName));
+            } else if (entryName.endsWith("/") || entryName.endsWith(".jar")) {
+                zip.writeStored(entryName, entryName.endsWith("/") ? new byte[0] : reader.readEntry(entryName));
+            } else {
+                zip.writeDeflated(entryName, reader.readEntry(entryName));
+            }
+        }
+
         public InputStream openClass(String fqcn) throws IOException {
-            String entry = classToEntry.get(fqcn);
-            if (entry == null) throw new IOException("[!] Class not found: " + fqcn);
-            JarFile jf = new JarFile(jarPath.toFile());
-            return jf.getInputStream(jf.getJarEntry(entry));
+            // served from the cache so in-memory edits are visible and no extra JarFile is leaked
+            return new ByteArrayInputStream(getClassBytes(fqcn));
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            DecompilerService.classPathClosed(this);
+            if (watcher != null) {
+                watcher.close();
+            }
+            classCache.leaveBudget();
+            decompiledCodeCache.leaveBudget();
+            OffHeapClassStore store = offHeapStore;
+            if (store != null) {
+                store.clear();
+            }
+            for (ArchiveReader library : libraries.values()) {
+                library.close();
+            }
+            archive.close();
         }
-    }
\ No newline at end of file
+    }
@@ -0,0 +1,206 @@
+package com.sulfur.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only store that packs class files into large direct buffers outside
+ * the Java heap. Every stored class gets a compact int handle; the store never
+ * evicts and refuses new classes once its capacity is reached. Freed classes
+ * leave holes that are reclaimed by copying the live ones into new segments.
+ */
+public class OffHeapClassStore {
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final long capacity;
+    private List<ByteBuffer> segments = new ArrayList<>();
+    private long usedBytes;
+    // what the segments take, including the unused tail of every one but the last
+    private long allocatedBytes;
+    private long freedBytes;
+    private boolean full;
+
+    // handle -> location, kept as parallel int arrays instead of one object per class
+    private int[] segmentOf = new int[1024];
+    private int[] offsetOf = new int[1024];
+    private int[] lengthOf = new int[1024];
+    private int handleCount;
+    private int freedHandles;
+
+    public OffHeapClassStore(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Copies the class into off-heap memory.
+     * @return the handle of the stored class, or -1 if the store is full
+     */
+    public synchronized int store(byte[] bytes) {
+        if (full || bytes.length > SEGMENT_SIZE) {
+            return -1;
+        }
+        // once half of what is allocated is holes, or the holes are all that is left, it is worth a copy
+        if (freedBytes > 0 && (freedBytes * 2 > allocatedBytes || !fits(bytes.length))) {
+            compact();
+        }
+        if (full || !fits(bytes.length)) {
+            return -1;
+        }
+
+        ByteBuffer segment = segmentFor(bytes.length);
+        if (segment == null) {
+            return -1;
+        }
+
+        if (handleCount == segmentOf.length) {
+            int newLength = handleCount * 2;
+            segmentOf = Arrays.copyOf(segmentOf, newLength);
+            offsetOf = Arrays.copyOf(offsetOf, newLength);
+            lengthOf = Arrays.copyOf(lengthOf, newLength);
+        }
+
+        int handle = handleCount++;
+        segmentOf[handle] = segments.size() - 1;
+        offsetOf[handle] = segment.position();
+        lengthOf[handle] = bytes.length;
+        segment.put(bytes);
+        usedBytes += bytes.length;
+        return handle;
+    }
+
+    private boolean fits(int length) {
+        ByteBuffer last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        return (last != null && last.remaining() >= length) || allocatedBytes + length <= capacity;
+    }
+
+    /**
+     * @return the last segment if the class fits in it, otherwise a new one, or null when
+     *         direct memory has run out
+     */
+    private ByteBuffer segmentFor(int length) {
+        ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment != null && segment.remaining() >= length) {
+            return segment;
+        }
+        int size = (int) Math.min(SEGMENT_SIZE, Math.max(length, capacity - allocatedBytes));
+        try {
+            segment = ByteBuffer.allocateDirect(size);
+        } catch (OutOfMemoryError e) {
+            // ran into -XX:MaxDirectMemorySize, just stop growing
+            full = true;
+            return null;
+        }
+        segments.add(segment);
+        allocatedBytes += size;
+        return segment;
+    }
+
+    /**
+     * Gives up a stored class, its bytes are reclaimed by a later compaction.
+     */
+    public synchronized void free(int handle) {
+        if (handle < 0 || handle >= handleCount || lengthOf[handle] < 0) return;
+        freedBytes += lengthOf[handle];
+        usedBytes -= lengthOf[handle];
+        lengthOf[handle] = -1;
+        freedHandles++;
+    }
+
+    /**
+     * Copies the live classes into new segments, handles stay the same. Views handed out earlier
+     * keep the old segments alive until they are dropped, so nothing is moved under a reader.
+     */
+    private void compact() {
+        List<ByteBuffer> old = segments;
+        long oldAllocated = allocatedBytes;
+        int[] newSegmentOf = segmentOf.clone();
+        int[] newOffsetOf = offsetOf.clone();
+        segments = new ArrayList<>();
+        allocatedBytes = 0;
+        for (int handle = 0; handle < handleCount; handle++) {
+            int length = lengthOf[handle];
+            if (length < 0) continue;
+            ByteBuffer segment = segmentFor(length);
+            if (segment == null) {
+                // no direct memory for the copy, keep the old layout
+                segments = old;
+                allocatedBytes = oldAllocated;
+                return;
+            }
+            newSegmentOf[handle] = segments.size() - 1;
+            newOffsetOf[handle] = segment.position();
+            segment.put(old.get(segmentOf[handle]).slice(offsetOf[handle], length));
+        }
+        segmentOf = newSegmentOf;
+        offsetOf = newOffsetOf;
+        freedBytes = 0;
+    }
+
+    /**
+     * @return a read-only view of the stored class, no bytes are copied, or null if it was freed
+     */
+    public ByteBuffer view(int handle) {
+        ByteBuffer segment;
+        int offset;
+        int length;
+        synchronized (this) {
+            if (handle < 0 || handle >= handleCount) {
+                throw new IllegalArgumentException("[!] Invalid off-heap class handle: " + handle);
+            }
+            length = lengthOf[handle];
+            if (length < 0) return null;
+            segment = segments.get(segmentOf[handle]);
+            offset = offsetOf[handle];
+        }
+        // absolute slice, so concurrent readers never touch the shared position
+        return segment.slice(offset, length).asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the stored class back onto the heap, for consumers that need an array (ASM, Procyon).
+     * @return the class bytes, or null if it was freed
+     */
+    public byte[] read(int handle) {
+        ByteBuffer view = view(handle);
+        if (view == null) return null;
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return bytes;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return how many classes are stored and not freed
+     */
+    public synchronized int size() {
+        return handleCount - freedHandles;
+    }
+
+    /**
+     * Drops all segments. Direct buffers are only freed once they are garbage collected.
+     */
+    public synchronized void clear() {
+        segments.clear();
+        handleCount = 0;
+        freedHandles = 0;
+        usedBytes = 0;
+        allocatedBytes = 0;
+        freedBytes = 0;
+        full = false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return (handleCount - freedHandles) + " classes, " + usedBytes + "/" + capacity + " bytes in " + segments.size() + " segments"
+                + (freedBytes > 0 ? ", " + freedBytes + " bytes freed" : "");
+    }
+}
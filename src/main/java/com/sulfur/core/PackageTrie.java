@@ -0,0 +1,463 @@
+package com.sulfur.core;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class names of an index kept as a trie of package segments. Every package exists once,
+ * classes are int ids into parallel arrays holding their package, simple name, entry root
+ * and library, and dotted names and entry paths are only put together when asked for.
+ *
+ * Lookups by name hash the name (Strings cache their hash) and compare it piecewise against
+ * the package and simple name, so they do not allocate either.
+ */
+public class PackageTrie {
+
+    public static final class PackageNode {
+        private final PackageNode parent;
+        private final String segment;
+        // packages are few, so their names are built once and kept
+        private final String name;
+        private final String path;
+        private final Map<String, PackageNode> children = new HashMap<>(4);
+
+        private PackageNode(PackageNode parent, String segment) {
+            this.parent = parent;
+            this.segment = segment;
+            if (parent == null) {
+                this.name = "";
+                this.path = "";
+            } else {
+                this.name = parent.name.isEmpty() ? segment : parent.name + "." + segment;
+                this.path = parent.path + segment + "/";
+            }
+        }
+
+        /**
+         * @return the last part of the package name, null for the default package
+         */
+        public String getSegment() {
+            return segment;
+        }
+
+        public PackageNode getParent() {
+            return parent;
+        }
+
+        /**
+         * @return the dotted package name, empty for the default package
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String qualify(String simpleName) {
+            return name.isEmpty() ? simpleName : name + "." + simpleName;
+        }
+    }
+
+    /**
+     * @see #forEachClass(ClassVisitor)
+     */
+    public interface ClassVisitor {
+        void visit(int id, PackageNode pkg, String simpleName, String library);
+    }
+
+    private static final int NONE = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final PackageNode root = new PackageNode(null, null);
+    // entry name prefixes such as BOOT-INF/classes/, and nested jar names, stored once and referred to by index
+    private final List<String> roots = new ArrayList<>(Collections.singletonList(""));
+    private final List<String> libraries = new ArrayList<>();
+    private final Map<String, Integer> libraryIds = new HashMap<>();
+
+    private PackageNode[] packages = new PackageNode[256];
+    private String[] simpleNames = new String[256];
+    private short[] classRoots = new short[256];
+    private int[] classLibraries = new int[256];
+    private int[] hashes = new int[256];
+    private boolean[] removed = new boolean[256];
+    private int count;
+    private int live;
+    // open addressing over the name hashes, slots hold id + 1 so that 0 means empty
+    private int[] table = new int[512];
+    // the last package looked up, entries of one package are usually next to each other
+    private PackageNode lastPackage = root;
+
+    /**
+     * Adds the class stored at {@code entryName}, whose first {@code rootLength} chars are the root
+     * it lives under (BOOT-INF/classes/ and such) and whose rest is its path.
+     *
+     * @return the new class id, or -1 if a class with that name is already present
+     */
+    public int add(String entryName, int rootLength, String library) {
+        lock.writeLock().lock();
+        try {
+            return insert(entryName, rootLength, library, false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Like {@link #add}, but a class that is already present is moved to the given entry and library.
+     */
+    public int put(String entryName, int rootLength, String library) {
+        lock.writeLock().lock();
+        try {
+            return insert(entryName, rootLength, library, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int insert(String entryName, int rootLength, String library, boolean replace) {
+        int classEnd = entryName.length() - ".class".length();
+        int slash = entryName.lastIndexOf('/', classEnd - 1);
+        PackageNode pkg = packageFor(entryName, rootLength, Math.max(slash, rootLength - 1));
+        String simpleName = entryName.substring(Math.max(slash, rootLength - 1) + 1, classEnd);
+        int hash = hash(pkg, simpleName);
+
+        int id = find(hash, pkg, simpleName);
+        if (id != NONE && !removed[id] && !replace) {
+            return NONE;
+        }
+        boolean added = id == NONE || removed[id];
+        if (id == NONE) {
+            id = count++;
+            if (id == packages.length) {
+                grow();
+            }
+            packages[id] = pkg;
+            simpleNames[id] = simpleName;
+            hashes[id] = hash;
+            if (count * 2 > table.length) {
+                rehash(table.length * 2);
+            } else {
+                insertSlot(table, id);
+            }
+        }
+        if (added) {
+            live++;
+        }
+        removed[id] = false;
+        classRoots[id] = rootId(entryName, rootLength);
+        classLibraries[id] = libraryId(library);
+        return id;
+    }
+
+    private PackageNode packageFor(String entryName, int start, int end) {
+        // end is the index of the last '/' of the package path, or start - 1 for the default package
+        PackageNode last = lastPackage;
+        int length = end + 1 - start;
+        if (last.path.length() == length && entryName.regionMatches(start, last.path, 0, length)) {
+            return last;
+        }
+        PackageNode pkg = root;
+        int pos = start;
+        while (pos <= end) {
+            int next = entryName.indexOf('/', pos);
+            String segment = entryName.substring(pos, next);
+            PackageNode child = pkg.children.get(segment);
+            if (child == null) {
+                // segments are shared by every class of the package, keep one copy
+                child = new PackageNode(pkg, segment.intern());
+                pkg.children.put(child.segment, child);
+            }
+            pkg = child;
+            pos = next + 1;
+        }
+        lastPackage = pkg;
+        return pkg;
+    }
+
+    private short rootId(String entryName, int rootLength) {
+        if (rootLength == 0) return 0;
+        for (int i = 1; i < roots.size(); i++) {
+            String root = roots.get(i);
+            if (root.length() == rootLength && entryName.startsWith(root)) {
+                return (short) i;
+            }
+        }
+        roots.add(entryName.substring(0, rootLength));
+        return (short) (roots.size() - 1);
+    }
+
+    private int libraryId(String library) {
+        if (library == null) return NONE;
+        Integer id = libraryIds.get(library);
+        if (id == null) {
+            id = libraries.size();
+            libraries.add(library);
+            libraryIds.put(library, id);
+        }
+        return id;
+    }
+
+    /**
+     * Same value as {@code pkg.qualify(simpleName).hashCode()}, without building the name.
+     */
+    private static int hash(PackageNode pkg, String simpleName) {
+        if (pkg.name.isEmpty()) {
+            return simpleName.hashCode();
+        }
+        int h = 31 * pkg.name.hashCode() + '.';
+        for (int i = 0; i < simpleName.length(); i++) {
+            h = 31 * h + simpleName.charAt(i);
+        }
+        return h;
+    }
+
+    private int find(int hash, PackageNode pkg, String simpleName) {
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (hashes[id] == hash && packages[id] == pkg && simpleNames[id].equals(simpleName)) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @return the id of a class by its dotted name, or -1
+     */
+    public int find(String className) {
+        lock.readLock().lock();
+        try {
+            int hash = className.hashCode();
+            int mask = table.length - 1;
+            for (int slot = mix(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                int id = table[slot] - 1;
+                if (hashes[id] == hash && !removed[id] && matches(id, className)) {
+                    return id;
+                }
+            }
+            return NONE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean matches(int id, String className) {
+        String pkg = packages[id].name;
+        String simpleName = simpleNames[id];
+        if (pkg.isEmpty()) {
+            return className.equals(simpleName);
+        }
+        return className.length() == pkg.length() + 1 + simpleName.length()
+                && className.startsWith(pkg)
+                && className.charAt(pkg.length()) == '.'
+                && className.endsWith(simpleName);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private void insertSlot(int[] slots, int id) {
+        int mask = slots.length - 1;
+        int slot = mix(hashes[id]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private void rehash(int size) {
+        table = new int[size];
+        for (int id = 0; id < count; id++) {
+            insertSlot(table, id);
+        }
+    }
+
+    private void grow() {
+        int size = packages.length * 2;
+        packages = Arrays.copyOf(packages, size);
+        simpleNames = Arrays.copyOf(simpleNames, size);
+        classRoots = Arrays.copyOf(classRoots, size);
+        classLibraries = Arrays.copyOf(classLibraries, size);
+        hashes = Arrays.copyOf(hashes, size);
+        removed = Arrays.copyOf(removed, size);
+    }
+
+    /**
+     * @return true if the class was present
+     */
+    public boolean remove(String className) {
+        lock.writeLock().lock();
+        try {
+            int id = find(className);
+            if (id == NONE) return false;
+            // the id keeps its slot, so the class comes back under the same id if it is added again
+            removed[id] = true;
+            live--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public String className(int id) {
+        lock.readLock().lock();
+        try {
+            return packages[id].qualify(simpleNames[id]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String entryName(int id) {
+        lock.readLock().lock();
+        try {
+            return roots.get(classRoots[id]) + packages[id].path + simpleNames[id] + ".class";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the root the entry of a class lives under, empty if it is at the top of the archive
+     */
+    public String entryRoot(int id) {
+        lock.readLock().lock();
+        try {
+            return roots.get(classRoots[id]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the nested jar a class comes from, or null
+     */
+    public String library(int id) {
+        lock.readLock().lock();
+        try {
+            int library = classLibraries[id];
+            return library == NONE ? null : libraries.get(library);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public PackageNode getRoot() {
+        return root;
+    }
+
+    public Collection<PackageNode> getChildren(PackageNode pkg) {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(pkg.children.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return one past the highest id handed out so far, ids are given out in order and never reused
+     */
+    public int idLimit() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits every class in the order it was added, without building any names.
+     */
+    public void forEachClass(ClassVisitor visitor) {
+        forEachClass(0, idLimit(), visitor);
+    }
+
+    /**
+     * Visits the classes with ids from {@code from} (inclusive) to {@code to} (exclusive).
+     */
+    public void forEachClass(int from, int to, ClassVisitor visitor) {
+        for (int id = from; id < to; id++) {
+            PackageNode pkg;
+            String simpleName;
+            String library;
+            lock.readLock().lock();
+            try {
+                if (removed[id]) continue;
+                pkg = packages[id];
+                simpleName = simpleNames[id];
+                library = classLibraries[id] == NONE ? null : libraries.get(classLibraries[id]);
+            } finally {
+                lock.readLock().unlock();
+            }
+            visitor.visit(id, pkg, simpleName, library);
+        }
+    }
+
+    /**
+     * @return a live view of the dotted class names, each name is built as it is iterated
+     */
+    public Set<String> classNames() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<>() {
+                    private int next = advance(0);
+
+                    private int advance(int from) {
+                        lock.readLock().lock();
+                        try {
+                            while (from < count && removed[from]) from++;
+                            return from < count ? from : NONE;
+                        } finally {
+                            lock.readLock().unlock();
+                        }
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != NONE;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (next == NONE) throw new NoSuchElementException();
+                        String name = className(next);
+                        next = advance(next + 1);
+                        return name;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return PackageTrie.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String name && find(name) != NONE;
+            }
+        };
+    }
+}
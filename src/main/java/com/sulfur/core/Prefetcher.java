@@ -0,0 +1,189 @@
+package com.sulfur.core;
+
+import com.sulfur.config.AppSettings;
+import org.objectweb.asm.ClassReader;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decompiles the classes the user is likely to open next while the UI is idle: the inner classes
+ * and the types referenced from the constant pool of the class on screen, then theirs, down to a
+ * set depth. Results land in the decompilation cache, so opening one of them is instant.
+ *
+ * A single low priority thread does the work and sleeps in between, so it uses no more than the
+ * configured share of one core.
+ */
+public class Prefetcher {
+    private static final int CONSTANT_CLASS = 7;
+    // how long the prefetcher stays off the CPU after the last user activity
+    private static final long IDLE_AFTER_MILLIS = 500;
+    // more than this many classes per round is guessing, not prefetching
+    private static final int MAX_CLASSES_PER_ROUND = 64;
+
+    private static final class Task {
+        final String className;
+        final int depth;
+        final long round;
+
+        Task(String className, int depth, long round) {
+            this.className = className;
+            this.depth = depth;
+            this.round = round;
+        }
+    }
+
+    private final ClassPath classPath;
+    private final AppSettings settings;
+    private final LinkedBlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    // classes queued this round, so a class everything refers to is only looked at once
+    private final Set<String> seen = new HashSet<>();
+    private final Thread worker;
+
+    private volatile long round;
+    private volatile long busyUntil;
+    private volatile boolean cancelled;
+    private int prefetched;
+
+    public Prefetcher(ClassPath classPath, AppSettings settings) {
+        this.classPath = classPath;
+        this.settings = settings;
+        this.worker = new Thread(this::work, "sulfur-prefetcher");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    /**
+     * Drops what was queued for the previous class and starts on what {@code className} refers to.
+     */
+    public void prefetch(String className) {
+        if (cancelled || settings.getPrefetchDepth() <= 0) return;
+        noteUserActivity();
+        synchronized (seen) {
+            long current = ++round;
+            queue.clear();
+            seen.clear();
+            seen.add(className);
+            prefetched = 0;
+            // depth 0 is the class on screen, the worker only reads its constant pool
+            queue.add(new Task(className, 0, current));
+        }
+    }
+
+    /**
+     * Tells the prefetcher the user is doing something, it waits until they stop.
+     */
+    public void noteUserActivity() {
+        busyUntil = System.currentTimeMillis() + IDLE_AFTER_MILLIS;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        queue.clear();
+        worker.interrupt();
+    }
+
+    private void enqueue(String className, int depth, long taskRound) {
+        List<String> next;
+        try {
+            next = likelyNext(className);
+        } catch (Exception e) {
+            return;
+        }
+        synchronized (seen) {
+            if (taskRound != round) return;
+            for (String candidate : next) {
+                if (prefetched >= MAX_CLASSES_PER_ROUND) return;
+                if (seen.add(candidate)) {
+                    prefetched++;
+                    queue.add(new Task(candidate, depth, taskRound));
+                }
+            }
+        }
+    }
+
+    /**
+     * The inner classes of a class, then the other classes of the class path its constant pool
+     * names, in the order they appear.
+     */
+    private List<String> likelyNext(String className) throws Exception {
+        ClassReader reader = new ClassReader(classPath.getClassBytes(className));
+        char[] buffer = new char[reader.getMaxStringLength()];
+        String innerPrefix = className + "$";
+        Set<String> inner = new LinkedHashSet<>();
+        Set<String> referenced = new LinkedHashSet<>();
+        Set<String> known = classPath.classNames();
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            // long and double entries take two slots, the second one has no offset
+            if (offset == 0 || reader.readByte(offset - 1) != CONSTANT_CLASS) continue;
+            String name = reader.readUTF8(offset, buffer);
+            if (name.startsWith("[")) {
+                int element = name.lastIndexOf('[') + 1;
+                if (name.charAt(element) != 'L') continue;
+                name = name.substring(element + 1, name.length() - 1);
+            }
+            String referencedClass = name.replace('/', '.');
+            if (referencedClass.equals(className) || !known.contains(referencedClass)) continue;
+            (referencedClass.startsWith(innerPrefix) ? inner : referenced).add(referencedClass);
+        }
+        List<String> next = new ArrayList<>(inner);
+        next.addAll(referenced);
+        return next;
+    }
+
+    private void work() {
+        try {
+            while (!cancelled) {
+                Task task = queue.take();
+                waitUntilIdle();
+                if (cancelled) return;
+                if (task.round != round) continue;
+
+                long start = System.nanoTime();
+                if (task.depth > 0) {
+                    try {
+                        if (settings.isUseCfrDecompiler()) {
+                            DecompilerService.decompileWithCFR(classPath, task.className, settings);
+                        } else {
+                            DecompilerService.decompile(classPath, task.className, settings);
+                        }
+                    } catch (Exception e) {
+                        // the index gets closed under us when another jar is opened
+                        if (cancelled) return;
+                        continue;
+                    }
+                }
+                if (task.depth < settings.getPrefetchDepth()) {
+                    enqueue(task.className, task.depth + 1, task.round);
+                }
+                throttle(System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void waitUntilIdle() throws InterruptedException {
+        long wait;
+        while (!cancelled && (wait = busyUntil - System.currentTimeMillis()) > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * Sleeps long enough after {@code busyNanos} of work to keep to the configured CPU share.
+     */
+    private void throttle(long busyNanos) throws InterruptedException {
+        int percent = Math.max(1, Math.min(100, settings.getPrefetchCpuPercent()));
+        if (percent >= 100) return;
+        long sleepNanos = busyNanos * (100 - percent) / percent;
+        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+    }
+}
@@ -1,18 +1,17 @@
 package com.sulfur.core;
 
-import com.sulfur.core.JarIndex;
-
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class UsageAnalyzer {
 
-    private final JarIndex jarIndex;
+    private final ClassPath jarIndex;
 
-    public UsageAnalyzer(JarIndex jarIndex) {
+    public UsageAnalyzer(ClassPath jarIndex) {
         this.jarIndex = jarIndex;
     }
 
@@ -25,6 +24,9 @@ public class UsageAnalyzer {
         Pattern pattern = Pattern.compile("\\b" + Pattern.quote(searchTerm) + "\\b");
 
         for (String className : jarIndex.classNames()) {
+            // nested classes share their top-level class's code, the match is reported there
+            String host = DecompilerService.knownNestHost(jarIndex, className);
+            if (host != null && !host.equals(className)) continue;
             String decompiledCode = jarIndex.getDecompiledCode(className);
             if (decompiledCode != null) {
                 Matcher matcher = pattern.matcher(decompiledCode);
@@ -33,6 +35,16 @@ public class UsageAnalyzer {
                 }
             }
         }
+
+        // subclasses and implementations use the class too, whether they were decompiled or not
+        List<JarIndex> archives = jarIndex instanceof Workspace workspace ? workspace.getMembers()
+                : jarIndex instanceof JarIndex index ? List.of(index) : List.of();
+        for (JarIndex archive : archives) {
+            ClassHierarchy hierarchy = archive.getHierarchy();
+            if (hierarchy != null) {
+                usages.addAll(hierarchy.getDirectSubtypes(searchTerm));
+            }
+        }
         return usages;
     }
 }
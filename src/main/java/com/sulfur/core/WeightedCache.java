@@ -0,0 +1,333 @@
+package com.sulfur.core;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * LRU cache bounded by the total weight of its values rather than by entry count.
+ * Pinned entries are never evicted and do not count towards the capacity, they
+ * stay until they are unpinned or removed.
+ *
+ * Several caches can share one {@link SharedBudget}; they are then bounded by the
+ * budget as a whole and evict whichever member holds the least recently used entry.
+ */
+public class WeightedCache<K, V> {
+    // global access clock, so entries of different caches can be compared by age
+    private static final AtomicLong CLOCK = new AtomicLong();
+
+    private final ToLongFunction<V> weigher;
+    // access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<K, Node<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<K, V> pinned = new HashMap<>();
+    private SharedBudget budget;
+
+    private long capacity;
+    private long weight;
+    private long pinnedWeight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private static final class Node<V> {
+        final V value;
+        long lastAccess;
+
+        Node(V value) {
+            this.value = value;
+            this.lastAccess = CLOCK.incrementAndGet();
+        }
+    }
+
+    public WeightedCache(long capacity, ToLongFunction<V> weigher) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    public synchronized V get(K key) {
+        V value = pinned.get(key);
+        if (value == null) {
+            Node<V> node = entries.get(key);
+            if (node != null) {
+                node.lastAccess = CLOCK.incrementAndGet();
+                value = node.value;
+            }
+        }
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /**
+     * Looks up a value without touching the hit/miss counters.
+     */
+    public synchronized V peek(K key) {
+        V value = pinned.get(key);
+        if (value != null) {
+            return value;
+        }
+        Node<V> node = entries.get(key);
+        if (node == null) {
+            return null;
+        }
+        node.lastAccess = CLOCK.incrementAndGet();
+        return node.value;
+    }
+
+    public synchronized boolean containsKey(K key) {
+        return pinned.containsKey(key) || entries.containsKey(key);
+    }
+
+    public void put(K key, V value) {
+        SharedBudget shared;
+        synchronized (this) {
+            // a pinned value is an edit, only putPinned and unpin may replace it
+            if (pinned.containsKey(key)) {
+                return;
+            }
+            Node<V> old = entries.put(key, new Node<>(value));
+            if (old != null) {
+                addWeight(-weigher.applyAsLong(old.value));
+            }
+            addWeight(weigher.applyAsLong(value));
+            shared = budget;
+            if (shared == null) {
+                evict();
+                return;
+            }
+        }
+        // the budget locks other caches, so never call it while holding our own lock
+        if (shared.isOverMargin()) {
+            shared.rebalance();
+        }
+    }
+
+    // callers hold our lock, which also keeps the budget from changing under us
+    private void addWeight(long delta) {
+        weight += delta;
+        if (budget != null) {
+            budget.weight.addAndGet(delta);
+        }
+    }
+
+    public synchronized void putPinned(K key, V value) {
+        Node<V> old = entries.remove(key);
+        if (old != null) {
+            addWeight(-weigher.applyAsLong(old.value));
+        }
+        V previous = pinned.put(key, value);
+        if (previous != null) {
+            pinnedWeight -= weigher.applyAsLong(previous);
+        }
+        pinnedWeight += weigher.applyAsLong(value);
+    }
+
+    public synchronized boolean isPinned(K key) {
+        return pinned.containsKey(key);
+    }
+
+    /**
+     * @return a snapshot of all pinned entries
+     */
+    public synchronized Map<K, V> pinnedEntries() {
+        return new HashMap<>(pinned);
+    }
+
+    public void unpin(K key) {
+        V value;
+        synchronized (this) {
+            value = pinned.remove(key);
+            if (value == null) return;
+            pinnedWeight -= weigher.applyAsLong(value);
+        }
+        put(key, value);
+    }
+
+    public synchronized V remove(K key) {
+        V value = pinned.remove(key);
+        if (value != null) {
+            pinnedWeight -= weigher.applyAsLong(value);
+            return value;
+        }
+        Node<V> node = entries.remove(key);
+        if (node != null) {
+            addWeight(-weigher.applyAsLong(node.value));
+            return node.value;
+        }
+        return null;
+    }
+
+    /**
+     * Drops every entry that is not pinned.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        addWeight(-weight);
+    }
+
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        evict();
+    }
+
+    public synchronized long getCapacity() {
+        return budget != null ? budget.getCapacity() : capacity;
+    }
+
+    /**
+     * Makes this cache part of a budget shared with other caches. Its own capacity is
+     * ignored from then on.
+     */
+    public void joinBudget(SharedBudget shared) {
+        leaveBudget();
+        synchronized (this) {
+            budget = shared;
+            shared.weight.addAndGet(weight);
+        }
+        shared.register(this);
+        shared.rebalance();
+    }
+
+    public void leaveBudget() {
+        SharedBudget shared;
+        synchronized (this) {
+            shared = budget;
+            budget = null;
+            if (shared != null) {
+                shared.weight.addAndGet(-weight);
+            }
+        }
+        if (shared != null) {
+            shared.unregister(this);
+        }
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getPinnedWeight() {
+        return pinnedWeight;
+    }
+
+    public synchronized int size() {
+        return entries.size() + pinned.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    private void evict() {
+        Iterator<Node<V>> it = entries.values().iterator();
+        while (weight > capacity && it.hasNext()) {
+            Node<V> eldest = it.next();
+            it.remove();
+            addWeight(-weigher.applyAsLong(eldest.value));
+            evictions++;
+        }
+    }
+
+    private synchronized long eldestAccess() {
+        Iterator<Node<V>> it = entries.values().iterator();
+        return it.hasNext() ? it.next().lastAccess : Long.MAX_VALUE;
+    }
+
+    private synchronized void evictEldest() {
+        Iterator<Node<V>> it = entries.values().iterator();
+        if (it.hasNext()) {
+            Node<V> eldest = it.next();
+            it.remove();
+            addWeight(-weigher.applyAsLong(eldest.value));
+            evictions++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return size() + " entries, weight " + weight + "/" + getCapacity() + " (+" + pinnedWeight + " pinned), "
+                + hits + " hits, " + misses + " misses"
+                + (lookups > 0 ? " (" + (hits * 100 / lookups) + "% hit rate)" : "")
+                + ", " + evictions + " evictions";
+    }
+
+    /**
+     * Capacity shared by several caches. When the combined weight goes over it, the
+     * least recently used entry across all member caches is evicted first.
+     *
+     * The members keep a running total here, and only once it is past the capacity by a
+     * margin are they walked, evicting down to the capacity in one go.
+     */
+    public static class SharedBudget {
+        // a sixteenth over the capacity before anything is evicted
+        private static final int MARGIN_SHIFT = 4;
+
+        private final List<WeightedCache<?, ?>> caches = new CopyOnWriteArrayList<>();
+        private final AtomicLong weight = new AtomicLong();
+        private volatile long capacity;
+
+        public SharedBudget(long capacity) {
+            this.capacity = capacity;
+        }
+
+        public long getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(long capacity) {
+            this.capacity = capacity;
+            rebalance();
+        }
+
+        public long getWeight() {
+            return weight.get();
+        }
+
+        boolean isOverMargin() {
+            long limit = capacity;
+            return weight.get() > limit + (limit >> MARGIN_SHIFT);
+        }
+
+        private void register(WeightedCache<?, ?> cache) {
+            caches.add(cache);
+        }
+
+        private void unregister(WeightedCache<?, ?> cache) {
+            caches.remove(cache);
+        }
+
+        // lock order is always budget -> cache, caches never call back in while locked
+        synchronized void rebalance() {
+            while (weight.get() > capacity) {
+                WeightedCache<?, ?> victim = null;
+                long oldest = Long.MAX_VALUE;
+                for (WeightedCache<?, ?> cache : caches) {
+                    long access = cache.eldestAccess();
+                    if (access < oldest) {
+                        oldest = access;
+                        victim = cache;
+                    }
+                }
+                if (victim == null) break;
+                victim.evictEldest();
+            }
+        }
+    }
+}
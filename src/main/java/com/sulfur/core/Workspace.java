@@ -0,0 +1,298 @@
+package com.sulfur.core;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Several archives analyzed together as one classpath, usually an application
+ * jar followed by its dependencies. Lookups resolve to the first archive that
+ * defines a class; later definitions are recorded as conflicts. All members
+ * share one class byte budget and one decompiled source budget.
+ */
+public class Workspace implements ClassPath, AutoCloseable {
+
+    public interface ProgressListener {
+        void onArchiveIndexed(Path archive, int done, int total);
+    }
+
+    private static final long DEFAULT_CLASS_BUDGET_BYTES = 512L * 1024 * 1024;
+    private static final long DEFAULT_SOURCE_BUDGET_CHARS = 128L * 1024 * 1024;
+
+    private final List<JarIndex> members;
+    // watched directory members add and remove classes from their watcher thread
+    private final Map<String, JarIndex> classOwners = new ConcurrentHashMap<>();
+    private final Map<String, List<JarIndex>> conflicts = new LinkedHashMap<>();
+    private final List<JarIndex.ChangeListener> memberListeners = new ArrayList<>();
+    private volatile JarIndex.ChangeListener changeListener;
+    private final WeightedCache.SharedBudget classBudget = new WeightedCache.SharedBudget(DEFAULT_CLASS_BUDGET_BYTES);
+    private final WeightedCache.SharedBudget sourceBudget = new WeightedCache.SharedBudget(DEFAULT_SOURCE_BUDGET_CHARS);
+
+    private Workspace(List<JarIndex> members) {
+        this.members = Collections.unmodifiableList(members);
+        for (JarIndex member : members) {
+            member.shareCacheBudget(classBudget, sourceBudget);
+            for (String className : member.classNames()) {
+                JarIndex owner = classOwners.putIfAbsent(className, member);
+                if (owner != null) {
+                    conflicts.computeIfAbsent(className, k -> new ArrayList<>(List.of(owner))).add(member);
+                }
+            }
+        }
+        for (JarIndex member : members) {
+            JarIndex.ChangeListener listener = this::membersChanged;
+            member.addChangeListener(listener);
+            memberListeners.add(listener);
+        }
+    }
+
+    private void membersChanged(Set<String> added, Set<String> changed, Set<String> removed) {
+        synchronized (conflicts) {
+            for (Set<String> names : List.of(added, removed)) {
+                for (String className : names) {
+                    resolve(className);
+                }
+            }
+        }
+        JarIndex.ChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.onClassesChanged(added, changed, removed);
+        }
+    }
+
+    /**
+     * Works out again which members define a class, the first of them owns it.
+     */
+    private void resolve(String className) {
+        List<JarIndex> defining = new ArrayList<>();
+        for (JarIndex member : members) {
+            if (member.classNames().contains(className)) {
+                defining.add(member);
+            }
+        }
+        if (defining.isEmpty()) {
+            classOwners.remove(className);
+        } else {
+            classOwners.put(className, defining.get(0));
+        }
+        if (defining.size() > 1) {
+            conflicts.put(className, defining);
+        } else {
+            conflicts.remove(className);
+        }
+    }
+
+    /**
+     * Told about classes any member added, rewrote or deleted, after the workspace has caught up with them.
+     */
+    public void setChangeListener(JarIndex.ChangeListener listener) {
+        this.changeListener = listener;
+    }
+
+    /**
+     * Stops following the members without closing them, for when they move on to a new workspace.
+     */
+    public void detach() {
+        for (int i = 0; i < members.size(); i++) {
+            members.get(i).removeChangeListener(memberListeners.get(i));
+        }
+        DecompilerService.classPathClosed(this);
+    }
+
+    /**
+     * Indexes all archives in parallel. The order of the list decides which archive
+     * wins when several define the same class.
+     */
+    public static Workspace open(List<Path> archives, ProgressListener listener) throws IOException {
+        return new Workspace(indexAll(archives, listener));
+    }
+
+    /**
+     * Builds a workspace around archives that are already open (keeping their caches and
+     * in-memory edits) plus newly indexed dependencies, which come after them on the classpath.
+     */
+    public static Workspace withDependencies(List<JarIndex> existing, List<Path> dependencies, ProgressListener listener) throws IOException {
+        List<JarIndex> members = new ArrayList<>(existing);
+        members.addAll(indexAll(dependencies, listener));
+        return new Workspace(members);
+    }
+
+    private static List<JarIndex> indexAll(List<Path> archives, ProgressListener listener) throws IOException {
+        int threads = Math.max(1, Math.min(archives.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "sulfur-workspace-indexer");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger done = new AtomicInteger();
+        List<Future<JarIndex>> futures = new ArrayList<>(archives.size());
+        for (Path archive : archives) {
+            futures.add(pool.submit(() -> {
+                JarIndex idx = JarIndex.fromJar(archive);
+                if (listener != null) {
+                    listener.onArchiveIndexed(archive, done.incrementAndGet(), archives.size());
+                }
+                return idx;
+            }));
+        }
+        pool.shutdown();
+
+        List<JarIndex> members = new ArrayList<>(archives.size());
+        IOException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                members.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new IOException("[!] Failed to index " + archives.get(i).getFileName() + ": " + e.getCause().getMessage(), e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new IOException("[!] Interrupted while indexing workspace", e);
+                }
+            }
+        }
+        if (failure != null) {
+            for (JarIndex member : members) {
+                try {
+                    member.close();
+                } catch (IOException ignored) {
+                }
+            }
+            throw failure;
+        }
+        return members;
+    }
+
+    public List<JarIndex> getMembers() {
+        return members;
+    }
+
+    /**
+     * @return the archive listed first, the one the workspace was opened for
+     */
+    public JarIndex getPrimary() {
+        return members.get(0);
+    }
+
+    /**
+     * @return the archive a class resolves to, or null if no member defines it
+     */
+    public JarIndex indexFor(String className) {
+        return classOwners.get(className);
+    }
+
+    /**
+     * @return every class defined by more than one member, with the defining members in classpath order
+     */
+    public Map<String, List<JarIndex>> getConflicts() {
+        synchronized (conflicts) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(conflicts));
+        }
+    }
+
+    public void setCacheCapacity(long classBytes, long sourceChars) {
+        classBudget.setCapacity(classBytes);
+        sourceBudget.setCapacity(sourceChars);
+    }
+
+    /**
+     * @see JarIndex#setTargetRelease(int)
+     */
+    public void setTargetRelease(int release) {
+        for (JarIndex member : members) {
+            member.setTargetRelease(release);
+        }
+    }
+
+    public WeightedCache.SharedBudget getClassBudget() {
+        return classBudget;
+    }
+
+    /**
+     * A change in any member is a change of the workspace.
+     */
+    @Override
+    public long getGeneration() {
+        long generation = 0;
+        for (JarIndex member : members) {
+            generation += member.getGeneration();
+        }
+        return generation;
+    }
+
+    @Override
+    public Set<String> classNames() {
+        return Collections.unmodifiableSet(classOwners.keySet());
+    }
+
+    @Override
+    public byte[] getClassBytes(String className) throws IOException {
+        JarIndex owner = classOwners.get(className);
+        if (owner == null) {
+            throw new IOException("[!] Class not found in workspace: " + className);
+        }
+        return owner.getClassBytes(className);
+    }
+
+    @Override
+    public void putClassBytes(String className, byte[] newBytes) {
+        JarIndex owner = classOwners.get(className);
+        (owner != null ? owner : getPrimary()).putClassBytes(className, newBytes);
+    }
+
+    @Override
+    public String getDecompiledCode(String className) {
+        // a nested class's code is kept under its top-level class, see DecompilerService
+        String host = DecompilerService.knownNestHost(this, className);
+        String name = host != null ? host : className;
+        JarIndex owner = classOwners.get(name);
+        return owner == null ? null : owner.getDecompiledCode(name);
+    }
+
+    @Override
+    public void putDecompiledCode(String className, String decompiledCode) {
+        JarIndex owner = classOwners.get(className);
+        (owner != null ? owner : getPrimary()).putDecompiledCode(className, decompiledCode);
+    }
+
+    /**
+     * Classes of the primary archive report their nested library like {@link JarIndex} does,
+     * classes of other members report the member's file name.
+     */
+    @Override
+    public String getLibrary(String className) {
+        JarIndex owner = classOwners.get(className);
+        if (owner == null) return null;
+        String nested = owner.getLibrary(className);
+        if (owner == getPrimary()) return nested;
+        String archive = owner.getJarPath().getFileName().toString();
+        return nested == null ? archive : archive + "!" + nested;
+    }
+
+    @Override
+    public void close() throws IOException {
+        detach();
+        IOException failure = null;
+        for (JarIndex member : members) {
+            try {
+                member.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,35 @@
+package com.sulfur.core.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Read-only view over the entries of an archive. Implementations must be safe
+ * to read from multiple threads at once.
+ */
+public interface ArchiveReader extends Closeable {
+
+    /**
+     * @return every entry name (directories included) in archive order
+     */
+    List<String> entryNames();
+
+    boolean hasEntry(String name);
+
+    /**
+     * @return the uncompressed size of the entry, or -1 if it is unknown
+     */
+    long entrySize(String name);
+
+    byte[] readEntry(String name) throws IOException;
+
+    /**
+     * Reads an entry as a buffer. Implementations that can hand out a view of
+     * the underlying storage without copying should override this.
+     */
+    default ByteBuffer readEntryBuffer(String name) throws IOException {
+        return ByteBuffer.wrap(readEntry(name));
+    }
+}
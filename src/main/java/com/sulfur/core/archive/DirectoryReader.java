@@ -0,0 +1,83 @@
+package com.sulfur.core.archive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * {@link ArchiveReader} over an exploded directory, such as a build's classes/ output or an
+ * unpacked war. Entry names are relative paths with '/' separators, like in a zip.
+ */
+public final class DirectoryReader implements ArchiveReader {
+    private final Path root;
+    private final Set<String> entryNames = ConcurrentHashMap.newKeySet();
+
+    public DirectoryReader(Path root) throws IOException {
+        this.root = root;
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile).forEach(file -> entryNames.add(toEntryName(file)));
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public String toEntryName(Path file) {
+        return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * Re-checks one entry after it changed on disk.
+     *
+     * @return true if the entry exists now
+     */
+    public boolean refresh(String name) {
+        if (Files.isRegularFile(root.resolve(name))) {
+            entryNames.add(name);
+            return true;
+        }
+        entryNames.remove(name);
+        return false;
+    }
+
+    @Override
+    public List<String> entryNames() {
+        List<String> names = new ArrayList<>(entryNames);
+        Collections.sort(names);
+        return names;
+    }
+
+    @Override
+    public boolean hasEntry(String name) {
+        return entryNames.contains(name);
+    }
+
+    @Override
+    public long entrySize(String name) {
+        try {
+            return Files.size(root.resolve(name));
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public byte[] readEntry(String name) throws IOException {
+        if (!entryNames.contains(name)) {
+            throw new IOException("[!] File not found in directory: " + name);
+        }
+        return Files.readAllBytes(root.resolve(name));
+    }
+
+    @Override
+    public void close() {
+        // nothing held open
+    }
+}
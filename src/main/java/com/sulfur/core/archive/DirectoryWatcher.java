@@ -0,0 +1,152 @@
+package com.sulfur.core.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Watches a directory tree and reports changed files as entry names of a {@link DirectoryReader}.
+ * Events are collected until the tree has been quiet for a moment, so a rebuild that rewrites
+ * hundreds of class files is delivered as one batch.
+ */
+public class DirectoryWatcher implements Closeable {
+    private static final long QUIET_PERIOD_MS = 300;
+    // how often to look for the root again after it was deleted, a clean build recreates it
+    private static final long ROOT_RETRY_MS = 1000;
+
+    private final DirectoryReader reader;
+    private final Consumer<Set<String>> onChange;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Thread thread;
+
+    public DirectoryWatcher(DirectoryReader reader, Consumer<Set<String>> onChange) throws IOException {
+        this.reader = reader;
+        this.onChange = onChange;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        registerTree(reader.getRoot());
+        this.thread = new Thread(this::run, "sulfur-directory-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void registerTree(Path dir) throws IOException {
+        try (Stream<Path> dirs = Files.walk(dir)) {
+            for (Path d : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                WatchKey key = d.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                keys.put(key, d);
+            }
+        }
+    }
+
+    /**
+     * Walks the whole tree again, watching directories created while events were lost.
+     */
+    private void rescan(Set<String> pending) {
+        Path root = reader.getRoot();
+        try {
+            registerTree(root);
+            try (Stream<Path> files = Files.walk(root)) {
+                files.filter(Files::isRegularFile).forEach(f -> pending.add(reader.toEntryName(f)));
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("[!] Could not rescan " + root + ": " + e.getMessage());
+        }
+    }
+
+    private void run() {
+        final Set<String> pending = new LinkedHashSet<>();
+        final Path root = reader.getRoot();
+        boolean rootLost = false;
+        try {
+            while (true) {
+                WatchKey key = !pending.isEmpty() ? watchService.poll(QUIET_PERIOD_MS, TimeUnit.MILLISECONDS)
+                        : rootLost ? watchService.poll(ROOT_RETRY_MS, TimeUnit.MILLISECONDS)
+                        : watchService.take();
+                if (rootLost && Files.isDirectory(root)) {
+                    rootLost = false;
+                    rescan(pending);
+                }
+                if (key == null) {
+                    if (pending.isEmpty()) continue;
+                    // quiet for a while, hand over what piled up
+                    Set<String> batch = new LinkedHashSet<>(pending);
+                    pending.clear();
+                    try {
+                        onChange.accept(batch);
+                    } catch (RuntimeException e) {
+                        System.err.println("[!] Failed to apply changes in " + reader.getRoot() + ": " + e.getMessage());
+                    }
+                    continue;
+                }
+                Path dir = keys.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                        // events were lost, so everything we know of and everything on disk has to be checked again
+                        pending.addAll(reader.entryNames());
+                        rescan(pending);
+                        continue;
+                    }
+                    Path file = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+                        // new packages: watch them and pick up whatever was written before we did
+                        try {
+                            registerTree(file);
+                            try (Stream<Path> files = Files.walk(file)) {
+                                files.filter(Files::isRegularFile).forEach(f -> pending.add(reader.toEntryName(f)));
+                            }
+                        } catch (IOException | UncheckedIOException e) {
+                            // usually deleted again while we walked it, a clean build does that
+                            System.err.println("[!] Could not watch new directory " + file + ": " + e.getMessage());
+                        }
+                        continue;
+                    }
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        // a deleted package takes all of its entries with it
+                        String prefix = reader.toEntryName(file) + "/";
+                        for (String name : reader.entryNames()) {
+                            if (name.startsWith(prefix)) pending.add(name);
+                        }
+                    }
+                    pending.add(reader.toEntryName(file));
+                }
+                if (!key.reset()) {
+                    keys.remove(key);
+                    if (root.equals(dir)) {
+                        // the root itself was deleted, whatever we knew of is gone until it comes back
+                        pending.addAll(reader.entryNames());
+                        if (Files.isDirectory(root)) {
+                            rescan(pending);
+                        } else {
+                            rootLost = true;
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,71 @@
+package com.sulfur.core.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * {@link ArchiveReader} backed by {@link JarFile}. Used for small archives and
+ * whenever signatures have to be verified.
+ */
+public class JarFileReader implements ArchiveReader {
+    private final JarFile jarFile;
+    private final List<String> entryNames;
+
+    public JarFileReader(Path jar, boolean verify) throws IOException {
+        this.jarFile = new JarFile(jar.toFile(), verify);
+        List<String> names = new ArrayList<>(jarFile.size());
+        Enumeration<JarEntry> en = jarFile.entries();
+        while (en.hasMoreElements()) {
+            names.add(en.nextElement().getName());
+        }
+        this.entryNames = Collections.unmodifiableList(names);
+    }
+
+    @Override
+    public List<String> entryNames() {
+        return entryNames;
+    }
+
+    @Override
+    public boolean hasEntry(String name) {
+        return jarFile.getJarEntry(name) != null;
+    }
+
+    @Override
+    public long entrySize(String name) {
+        JarEntry entry = jarFile.getJarEntry(name);
+        return entry == null ? -1 : entry.getSize();
+    }
+
+    @Override
+    public byte[] readEntry(String name) throws IOException {
+        JarEntry entry = jarFile.getJarEntry(name);
+        if (entry == null) {
+            throw new IOException("[!] .jar file entry not found: " + name);
+        }
+        try (InputStream is = jarFile.getInputStream(entry)) {
+            long size = entry.getSize();
+            // the central directory knows the size, so read straight into an exact array
+            if (size >= 0 && size <= Integer.MAX_VALUE) {
+                byte[] bytes = is.readNBytes((int) size);
+                if (bytes.length != size) {
+                    throw new IOException("[!] Truncated .jar file entry: " + name);
+                }
+                return bytes;
+            }
+            return is.readAllBytes();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        jarFile.close();
+    }
+}
@@ -0,0 +1,407 @@
+package com.sulfur.core.archive;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Zip reader that memory-maps the whole archive and parses the central
+ * directory straight out of the mapping. STORED entries are handed out as
+ * slices of the mapping, DEFLATED entries are inflated into arrays of exactly
+ * the uncompressed size recorded in the central directory.
+ */
+public class MappedZipReader implements ArchiveReader {
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int LOC_HEADER_SIZE = 30;
+    private static final int CEN_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final ByteBuffer data;
+    private final CentralDirectory cd;
+    private final Map<String, Integer> nameToIndex;
+
+    /**
+     * The parsed central directory, kept as parallel arrays so a 100k entry archive
+     * stays compact. Can be written out and read back to skip parsing next time.
+     */
+    public static final class CentralDirectory {
+        private final String[] names;
+        private final int[] methods;
+        private final int[] crcs;
+        private final long[] compressedSizes;
+        private final long[] sizes;
+        private final long[] localHeaderOffsets;
+        private final byte[] digest;
+
+        private CentralDirectory(int count, byte[] digest) {
+            this.names = new String[count];
+            this.methods = new int[count];
+            this.crcs = new int[count];
+            this.compressedSizes = new long[count];
+            this.sizes = new long[count];
+            this.localHeaderOffsets = new long[count];
+            this.digest = digest;
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        /**
+         * @return SHA-1 of the raw central directory bytes, which covers every name, CRC and offset
+         */
+        public byte[] getDigest() {
+            return digest.clone();
+        }
+
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(names.length);
+            out.writeInt(digest.length);
+            out.write(digest);
+            for (int i = 0; i < names.length; i++) {
+                out.writeUTF(names[i]);
+                out.writeByte(methods[i]);
+                out.writeInt(crcs[i]);
+                out.writeLong(compressedSizes[i]);
+                out.writeLong(sizes[i]);
+                out.writeLong(localHeaderOffsets[i]);
+            }
+        }
+
+        public static CentralDirectory read(DataInput in) throws IOException {
+            int count = in.readInt();
+            byte[] digest = new byte[in.readInt()];
+            in.readFully(digest);
+            CentralDirectory cd = new CentralDirectory(count, digest);
+            for (int i = 0; i < count; i++) {
+                cd.names[i] = in.readUTF();
+                cd.methods[i] = in.readUnsignedByte();
+                cd.crcs[i] = in.readInt();
+                cd.compressedSizes[i] = in.readLong();
+                cd.sizes[i] = in.readLong();
+                cd.localHeaderOffsets[i] = in.readLong();
+            }
+            return cd;
+        }
+    }
+
+    /**
+     * Maps the archive at the given path. Archives have to be smaller than 2 GB
+     * since a single mapping cannot be larger than that.
+     */
+    public static MappedZipReader open(Path zip) throws IOException {
+        return new MappedZipReader(map(zip));
+    }
+
+    /**
+     * Maps the archive and trusts a previously parsed central directory instead of parsing it again.
+     */
+    public static MappedZipReader open(Path zip, CentralDirectory cd) throws IOException {
+        return new MappedZipReader(map(zip), cd);
+    }
+
+    public static ByteBuffer map(Path zip) throws IOException {
+        try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("[!] Archive too large to map: " + zip);
+            }
+            // the mapping stays valid after the channel is closed and is released by the GC
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return mapped;
+        }
+    }
+
+    public MappedZipReader(ByteBuffer data) throws IOException {
+        this(data, parse(data));
+    }
+
+    public MappedZipReader(ByteBuffer data, CentralDirectory cd) {
+        this.data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.cd = cd;
+        this.nameToIndex = new HashMap<>(cd.size() * 4 / 3 + 1);
+        for (int i = 0; i < cd.size(); i++) {
+            nameToIndex.putIfAbsent(cd.names[i], i);
+        }
+    }
+
+    public CentralDirectory getCentralDirectory() {
+        return cd;
+    }
+
+    /**
+     * Hashes only the central directory of an archive, which is a cheap fingerprint of its whole content.
+     */
+    public static byte[] digestCentralDirectory(ByteBuffer data) throws IOException {
+        ByteBuffer buf = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long[] bounds = locateCentralDirectory(buf);
+        return digest(buf, bounds[0], bounds[1]);
+    }
+
+    public static CentralDirectory parse(ByteBuffer data) throws IOException {
+        ByteBuffer buf = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long[] bounds = locateCentralDirectory(buf);
+        long cenStart = bounds[0];
+        long cenSize = bounds[1];
+        long entryCount = bounds[2];
+        long base = bounds[3];
+
+        CentralDirectory cd = new CentralDirectory((int) entryCount, digest(buf, cenStart, cenSize));
+        int pos = checkedOffset(buf, cenStart);
+        for (int i = 0; i < cd.size(); i++) {
+            if (buf.getInt(pos) != CEN_SIG) {
+                throw new IOException("[!] Corrupt zip central directory entry at " + pos);
+            }
+            int nameLength = u16(buf, pos + 28);
+            int extraLength = u16(buf, pos + 30);
+            int commentLength = u16(buf, pos + 32);
+
+            cd.methods[i] = u16(buf, pos + 10);
+            cd.crcs[i] = buf.getInt(pos + 16);
+            long compressed = u32(buf, pos + 20);
+            long size = u32(buf, pos + 24);
+            long offset = u32(buf, pos + 42);
+
+            byte[] nameBytes = new byte[nameLength];
+            buf.get(pos + CEN_HEADER_SIZE, nameBytes);
+            cd.names[i] = new String(nameBytes, StandardCharsets.UTF_8);
+
+            if (size == ZIP64_MAGIC || compressed == ZIP64_MAGIC || offset == ZIP64_MAGIC) {
+                int extra = pos + CEN_HEADER_SIZE + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = u16(buf, extra);
+                    int length = u16(buf, extra + 2);
+                    if (id == 0x0001) {
+                        int field = extra + 4;
+                        if (size == ZIP64_MAGIC) { size = buf.getLong(field); field += 8; }
+                        if (compressed == ZIP64_MAGIC) { compressed = buf.getLong(field); field += 8; }
+                        if (offset == ZIP64_MAGIC) { offset = buf.getLong(field); }
+                        break;
+                    }
+                    extra += 4 + length;
+                }
+            }
+
+            cd.compressedSizes[i] = compressed;
+            cd.sizes[i] = size;
+            cd.localHeaderOffsets[i] = base + offset;
+
+            pos += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return cd;
+    }
+
+    /**
+     * @return start, size and entry count of the central directory, and the offset the zip starts at
+     */
+    private static long[] locateCentralDirectory(ByteBuffer buf) throws IOException {
+        int end = findEndRecord(buf);
+        long entryCount = u16(buf, end + 10);
+        long cenSize = u32(buf, end + 12);
+        long cenOffset = u32(buf, end + 16);
+        long cenEnd = end;
+
+        int locator = end - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && buf.getInt(locator) == ZIP64_LOCATOR_SIG) {
+            int zip64End = checkedOffset(buf, buf.getLong(locator + 8));
+            if (buf.getInt(zip64End) == ZIP64_END_SIG) {
+                entryCount = buf.getLong(zip64End + 32);
+                cenSize = buf.getLong(zip64End + 40);
+                cenOffset = buf.getLong(zip64End + 48);
+                // the zip64 end record sits between the central directory and the locator
+                cenEnd = zip64End;
+            }
+        }
+
+        // offsets are relative to the start of the zip, which is not the start of the file when
+        // something is prepended (jmod headers, launcher stubs), so work out the real base
+        long cenStart = cenEnd - cenSize;
+        long base = cenStart - cenOffset;
+        if (cenStart < 0 || base < 0 || entryCount > Integer.MAX_VALUE) {
+            throw new IOException("[!] Corrupt zip central directory");
+        }
+        return new long[] { cenStart, cenSize, entryCount, base };
+    }
+
+    private static int findEndRecord(ByteBuffer buf) throws IOException {
+        int limit = buf.limit();
+        int stop = Math.max(0, limit - END_HEADER_SIZE - 0xFFFF);
+        for (int pos = limit - END_HEADER_SIZE; pos >= stop; pos--) {
+            if (buf.getInt(pos) == END_SIG && pos + END_HEADER_SIZE + u16(buf, pos + 20) == limit) {
+                return pos;
+            }
+        }
+        throw new IOException("[!] Not a zip file (no end of central directory record)");
+    }
+
+    private static byte[] digest(ByteBuffer buf, long start, long size) throws IOException {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            sha1.update(buf.slice(checkedOffset(buf, start), (int) size));
+            return sha1.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("[!] SHA-1 not available", e);
+        }
+    }
+
+    @Override
+    public List<String> entryNames() {
+        return Collections.unmodifiableList(Arrays.asList(cd.names));
+    }
+
+    @Override
+    public boolean hasEntry(String name) {
+        return nameToIndex.containsKey(name);
+    }
+
+    @Override
+    public long entrySize(String name) {
+        Integer i = nameToIndex.get(name);
+        return i == null ? -1 : cd.sizes[i];
+    }
+
+    @Override
+    public byte[] readEntry(String name) throws IOException {
+        int i = indexOf(name);
+        ByteBuffer raw = rawData(i);
+        if (cd.methods[i] == STORED) {
+            byte[] bytes = new byte[raw.remaining()];
+            raw.get(bytes);
+            return bytes;
+        }
+        return inflate(raw, i);
+    }
+
+    /**
+     * STORED entries come back as a read-only slice of the mapping, without copying.
+     */
+    @Override
+    public ByteBuffer readEntryBuffer(String name) throws IOException {
+        int i = indexOf(name);
+        ByteBuffer raw = rawData(i);
+        if (cd.methods[i] == STORED) {
+            return raw;
+        }
+        return ByteBuffer.wrap(inflate(raw, i));
+    }
+
+    /**
+     * @return the still-compressed bytes of an entry as a read-only slice of the mapping
+     */
+    public ByteBuffer rawEntryData(String name) throws IOException {
+        return rawData(indexOf(name));
+    }
+
+    public int entryMethod(String name) throws IOException {
+        return cd.methods[indexOf(name)];
+    }
+
+    public int entryCrc(String name) throws IOException {
+        return cd.crcs[indexOf(name)];
+    }
+
+    /**
+     * @return modification time and date from the local header, in the packed MS-DOS format
+     */
+    public int entryDosTime(String name) throws IOException {
+        int i = indexOf(name);
+        int header = checkedOffset(data, cd.localHeaderOffsets[i]);
+        return data.getInt(header + 10);
+    }
+
+    private int indexOf(String name) throws IOException {
+        Integer i = nameToIndex.get(name);
+        if (i == null) {
+            throw new IOException("[!] Zip entry not found: " + name);
+        }
+        return i;
+    }
+
+    private ByteBuffer rawData(int i) throws IOException {
+        int header = checkedOffset(data, cd.localHeaderOffsets[i]);
+        if (data.getInt(header) != LOC_SIG) {
+            throw new IOException("[!] Corrupt local header for zip entry: " + cd.names[i]);
+        }
+        // the local extra field may differ from the central one, so always read its length here
+        long start = (long) header + LOC_HEADER_SIZE + u16(data, header + 26) + u16(data, header + 28);
+        long length = cd.methods[i] == STORED ? cd.sizes[i] : cd.compressedSizes[i];
+        if (start + length > data.limit()) {
+            throw new IOException("[!] Zip entry extends past end of archive: " + cd.names[i]);
+        }
+        return data.slice((int) start, (int) length).asReadOnlyBuffer();
+    }
+
+    private byte[] inflate(ByteBuffer raw, int i) throws IOException {
+        if (cd.methods[i] != DEFLATED) {
+            throw new IOException("[!] Unsupported compression method " + cd.methods[i] + " for zip entry: " + cd.names[i]);
+        }
+        if (cd.sizes[i] > Integer.MAX_VALUE) {
+            throw new IOException("[!] Zip entry too large: " + cd.names[i]);
+        }
+        byte[] out = new byte[(int) cd.sizes[i]];
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(raw);
+        try {
+            int written = 0;
+            while (written < out.length) {
+                int n = inflater.inflate(out, written, out.length - written);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("[!] Truncated deflate data for zip entry: " + cd.names[i]);
+                }
+                written += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("[!] Corrupt deflate data for zip entry: " + cd.names[i], e);
+        }
+        return out;
+    }
+
+    private static int u16(ByteBuffer buf, int pos) {
+        return buf.getShort(pos) & 0xFFFF;
+    }
+
+    private static long u32(ByteBuffer buf, int pos) {
+        return buf.getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    private static int checkedOffset(ByteBuffer buf, long offset) throws IOException {
+        if (offset < 0 || offset >= buf.limit()) {
+            throw new IOException("[!] Zip offset out of range: " + offset);
+        }
+        return (int) offset;
+    }
+
+    @Override
+    public void close() {
+        // nothing to release eagerly, the mapping is unmapped once it becomes unreachable
+    }
+}
@@ -0,0 +1,150 @@
+package com.sulfur.core.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * {@link ZipWriter} front end that deflates entries on a pool of workers while a single
+ * sequencer thread writes them out in the order they were submitted, so the output is the
+ * same as a serial write. At most {@code queueCapacity} entries are in flight, which bounds
+ * how much of the output sits in memory.
+ */
+public class ParallelZipWriter implements Closeable {
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final Pending END = new Pending(null, 0, 0, 0, 0, null, null);
+
+    private final ZipWriter zip;
+    private final ExecutorService compressors;
+    private final BlockingQueue<Pending> queue;
+    private final Set<String> names = new HashSet<>();
+    private final Thread sequencer;
+    private volatile Throwable failure;
+
+    /**
+     * An entry waiting for its turn, the data may still be being compressed.
+     */
+    private static final class Pending {
+        final String name;
+        final int method;
+        final int dosTime;
+        final long size;
+        final int crc;
+        // either already compressed data, or the job compressing it
+        final ByteBuffer data;
+        final Future<byte[]> compressed;
+
+        Pending(String name, int method, int dosTime, int crc, long size, ByteBuffer data, Future<byte[]> compressed) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.compressed = compressed;
+        }
+    }
+
+    public ParallelZipWriter(WritableByteChannel channel, ExecutorService compressors, int queueCapacity) {
+        this.zip = new ZipWriter(channel);
+        this.compressors = compressors;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.sequencer = new Thread(this::drain, "sulfur-zip-sequencer");
+        this.sequencer.setDaemon(true);
+        this.sequencer.start();
+    }
+
+    /**
+     * Queues an entry whose data is already compressed, see {@link ZipWriter#writeRaw}.
+     */
+    public boolean writeRaw(String name, int method, int dosTime, int crc, long size, ByteBuffer compressedData) throws IOException {
+        if (!names.add(name)) return false;
+        // raw entries are mostly slices of a mapping, nothing to compute and nothing on the heap
+        enqueue(new Pending(name, method, dosTime, crc, size, compressedData, null));
+        return true;
+    }
+
+    public boolean writeStored(String name, byte[] data) throws IOException {
+        if (!names.add(name)) return false;
+        enqueue(new Pending(name, MappedZipReader.STORED, ZipWriter.dosTime(System.currentTimeMillis()),
+                ZipWriter.crc(data), data.length, ByteBuffer.wrap(data), null));
+        return true;
+    }
+
+    public boolean writeDeflated(String name, byte[] data) throws IOException {
+        if (!names.add(name)) return false;
+        int dosTime = ZipWriter.dosTime(System.currentTimeMillis());
+        Future<byte[]> compressed = compressors.submit(() -> ZipWriter.deflate(data, DEFLATERS.get()));
+        // the crc is cheap next to deflating, no need to move it off this thread
+        enqueue(new Pending(name, MappedZipReader.DEFLATED, dosTime, ZipWriter.crc(data), data.length, null, compressed));
+        return true;
+    }
+
+    private void enqueue(Pending pending) throws IOException {
+        try {
+            // blocks while the queue is full, checking now and then that the sequencer is still alive
+            while (!queue.offer(pending, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("[!] Interrupted while writing zip");
+        }
+        checkFailure();
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                Pending pending = queue.take();
+                if (pending == END) return;
+                ByteBuffer data = pending.data != null ? pending.data : ByteBuffer.wrap(pending.compressed.get());
+                zip.writeRaw(pending.name, pending.method, pending.dosTime, pending.crc, pending.size, data);
+            }
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        } catch (Throwable t) {
+            failure = t;
+        }
+        // unblock producers waiting on a full queue
+        queue.clear();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t != null) {
+            throw t instanceof IOException io ? io : new IOException("[!] Failed to write zip: " + t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Waits for every queued entry to be written, then writes the central directory.
+     * Does not close the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (failure == null) {
+                enqueue(END);
+            }
+            sequencer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("[!] Interrupted while writing zip");
+        }
+        checkFailure();
+        zip.close();
+    }
+}
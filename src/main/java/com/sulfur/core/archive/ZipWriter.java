@@ -0,0 +1,271 @@
+package com.sulfur.core.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Minimal zip writer that can take entries which are already compressed, so unchanged entries
+ * of an archive are copied as-is instead of being inflated and deflated again. Writes Zip64
+ * records when the archive has more than 65535 entries or grows past 4 GB.
+ */
+public class ZipWriter implements Closeable {
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    // names are always written as UTF-8
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private final WritableByteChannel channel;
+    // headers are small, so they are collected here instead of costing a write call each
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private long offset;
+
+    private static final class Entry {
+        final byte[] name;
+        final int method;
+        final int dosTime;
+        final int crc;
+        final long compressedSize;
+        final long size;
+        final long offset;
+
+        Entry(byte[] name, int method, int dosTime, int crc, long compressedSize, long size, long offset) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        boolean needsZip64() {
+            return compressedSize >= ZIP64_MAGIC || size >= ZIP64_MAGIC;
+        }
+    }
+
+    public ZipWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Writes an entry from data that is already compressed with the given method.
+     *
+     * @return false if an entry with this name was already written, which is then skipped
+     */
+    public boolean writeRaw(String name, int method, int dosTime, int crc, long size, ByteBuffer compressedData) throws IOException {
+        if (!names.add(name)) {
+            return false;
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        Entry entry = new Entry(nameBytes, method, dosTime, crc, compressedData.remaining(), size, offset);
+        entries.add(entry);
+
+        boolean zip64 = entry.needsZip64();
+        ensureSpace(30 + nameBytes.length + 20);
+        buffer.putInt(LOC_SIG);
+        buffer.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+        buffer.putShort((short) FLAG_UTF8);
+        buffer.putShort((short) method);
+        buffer.putInt(dosTime);
+        buffer.putInt(crc);
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : entry.compressedSize));
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : entry.size));
+        buffer.putShort((short) nameBytes.length);
+        buffer.putShort((short) (zip64 ? 20 : 0));
+        buffer.put(nameBytes);
+        if (zip64) {
+            buffer.putShort((short) 0x0001);
+            buffer.putShort((short) 16);
+            buffer.putLong(entry.size);
+            buffer.putLong(entry.compressedSize);
+        }
+        offset += 30 + nameBytes.length + (zip64 ? 20 : 0);
+        write(compressedData.duplicate());
+        return true;
+    }
+
+    /**
+     * Copies an entry of a mapped archive over without decompressing it.
+     */
+    public boolean copyFrom(MappedZipReader reader, String name) throws IOException {
+        return writeRaw(name, reader.entryMethod(name), reader.entryDosTime(name), reader.entryCrc(name),
+                reader.entrySize(name), reader.rawEntryData(name));
+    }
+
+    public boolean writeStored(String name, byte[] data) throws IOException {
+        return writeRaw(name, MappedZipReader.STORED, dosTime(System.currentTimeMillis()), crc(data), data.length, ByteBuffer.wrap(data));
+    }
+
+    public boolean writeDeflated(String name, byte[] data) throws IOException {
+        return writeRaw(name, MappedZipReader.DEFLATED, dosTime(System.currentTimeMillis()), crc(data), data.length,
+                ByteBuffer.wrap(deflate(data, deflater)));
+    }
+
+    /**
+     * Raw deflate of a whole entry, the form {@link #writeRaw} expects for DEFLATED entries.
+     */
+    public static byte[] deflate(byte[] data, Deflater deflater) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        byte[] chunk = new byte[Math.min(64 * 1024, Math.max(64, data.length))];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    public static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the given time in the packed MS-DOS date/time format zip headers use
+     */
+    public static int dosTime(long millis) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (t.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+                | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long cenStart = offset;
+        for (Entry entry : entries) {
+            boolean largeSizes = entry.needsZip64();
+            boolean largeOffset = entry.offset >= ZIP64_MAGIC;
+            int extraLength = (largeSizes ? 16 : 0) + (largeOffset ? 8 : 0);
+            if (extraLength > 0) extraLength += 4;
+
+            ensureSpace(46 + entry.name.length + extraLength);
+            buffer.putInt(CEN_SIG);
+            buffer.putShort((short) (extraLength > 0 ? VERSION_ZIP64 : VERSION));
+            buffer.putShort((short) (extraLength > 0 ? VERSION_ZIP64 : VERSION));
+            buffer.putShort((short) FLAG_UTF8);
+            buffer.putShort((short) entry.method);
+            buffer.putInt(entry.dosTime);
+            buffer.putInt(entry.crc);
+            buffer.putInt((int) (largeSizes ? ZIP64_MAGIC : entry.compressedSize));
+            buffer.putInt((int) (largeSizes ? ZIP64_MAGIC : entry.size));
+            buffer.putShort((short) entry.name.length);
+            buffer.putShort((short) extraLength);
+            buffer.putShort((short) 0); // comment
+            buffer.putShort((short) 0); // disk
+            buffer.putShort((short) 0); // internal attributes
+            buffer.putInt(0); // external attributes
+            buffer.putInt((int) (largeOffset ? ZIP64_MAGIC : entry.offset));
+            buffer.put(entry.name);
+            if (extraLength > 0) {
+                buffer.putShort((short) 0x0001);
+                buffer.putShort((short) (extraLength - 4));
+                if (largeSizes) {
+                    buffer.putLong(entry.size);
+                    buffer.putLong(entry.compressedSize);
+                }
+                if (largeOffset) {
+                    buffer.putLong(entry.offset);
+                }
+            }
+            offset += 46 + entry.name.length + extraLength;
+        }
+        long cenSize = offset - cenStart;
+
+        boolean zip64 = entries.size() >= 0xFFFF || cenStart >= ZIP64_MAGIC || cenSize >= ZIP64_MAGIC;
+        ensureSpace(56 + 20 + 22);
+        if (zip64) {
+            long zip64End = offset;
+            buffer.putInt(ZIP64_END_SIG);
+            buffer.putLong(44);
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putInt(0);
+            buffer.putInt(0);
+            buffer.putLong(entries.size());
+            buffer.putLong(entries.size());
+            buffer.putLong(cenSize);
+            buffer.putLong(cenStart);
+
+            buffer.putInt(ZIP64_LOCATOR_SIG);
+            buffer.putInt(0);
+            buffer.putLong(zip64End);
+            buffer.putInt(1);
+        }
+        buffer.putInt(END_SIG);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) (zip64 ? 0xFFFF : entries.size()));
+        buffer.putShort((short) (zip64 ? 0xFFFF : entries.size()));
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : cenSize));
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : cenStart));
+        buffer.putShort((short) 0);
+        flush();
+    }
+
+    private void ensureSpace(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        offset += data.remaining();
+        if (data.remaining() <= buffer.remaining()) {
+            buffer.put(data);
+            return;
+        }
+        // big entries go straight to the channel, a mapped source is then copied without touching the heap
+        flush();
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the central directory. Does not close the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writeCentralDirectory();
+        } finally {
+            deflater.end();
+        }
+    }
+}
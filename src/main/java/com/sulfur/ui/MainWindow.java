@@ -1,11 +1,19 @@
 package com.sulfur.ui;
 
 import com.sulfur.core.DecompilerService;
+import com.sulfur.core.DiskSourceCache;
 import com.sulfur.core.Disassembler;
 import com.sulfur.core.JarIndex;
+import com.sulfur.core.PackageTrie;
 import com.sulfur.core.UsageAnalyzer;
+import com.sulfur.core.Workspace;
 import com.sulfur.core.BytecodeAssembler;
 import com.sulfur.core.BytecodeModifier;
+import com.sulfur.core.ClassPath;
+import com.sulfur.core.ClassPreloader;
+import com.sulfur.core.ArchivePatch;
+import com.sulfur.core.BackgroundDecompiler;
+import com.sulfur.core.Prefetcher;
 import com.sulfur.util.SwingUtil;
 import com.sulfur.config.AppSettings;
 import com.sulfur.ui.theme.ThemeManager;
@@ -22,6 +30,9 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.event.DocumentEvent;
@@ -41,6 +52,7 @@ public class MainWindow {
     private JCheckBoxMenuItem zkmDeobfuscationMenuItem;
     private JCheckBoxMenuItem allatoriDeobfuscationMenuItem;
     private JCheckBoxMenuItem discordRpcMenuItem;
+    private JCheckBoxMenuItem preloadClassesMenuItem;
 
     private JPopupMenu outputAreaPopupMenu;
 
@@ -49,6 +61,26 @@ public class MainWindow {
     private BytecodeAssembler bytecodeAssembler;
 
     private JarIndex index;
+    // what class lookups resolve through: the open jar itself, or a workspace of it plus its dependencies
+    private ClassPath classPath;
+    private Workspace workspace;
+    private ClassPreloader preloader;
+    private BackgroundDecompiler backgroundDecompiler;
+    // decompiles what the open class refers to while the user reads it, created on first use
+    private Prefetcher prefetcher;
+    // decompiles the selected class off the EDT, a stuck job is abandoned to its own thread
+    private final ExecutorService decompileExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "sulfur-decompile");
+        t.setDaemon(true);
+        return t;
+    });
+    private Future<?> decompileJob;
+    private javax.swing.Timer decompileTimeout;
+    // bumped on every selection, results of older jobs are dropped
+    private long decompileGeneration;
+    // library subtrees of the class tree, and how many classes of the open archive it has seen
+    private Map<String, Map<PackageTrie.PackageNode, DefaultMutableTreeNode>> treeGroups = new HashMap<>();
+    private int treeClassCount;
     private File currentJar;
     private String currentClass;
     private AppSettings settings;
@@ -60,64 +92,102 @@ public class MainWindow {
 
     private void onOpenJar() {
         JFileChooser chooser = new JFileChooser();
+        // exploded classes/ directories can be opened as well
+        chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
         chooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
             @Override
             public boolean accept(File f) {
-                return f.isDirectory() || f.getName().toLowerCase().endsWith(".jar");
+                return f.isDirectory() || isSupportedArchive(f);
             }
 
             @Override
             public String getDescription() {
-                return "JAR Files (*.jar)";
+                return "Java archives and class directories (*.jar, *.war, *.jmod)";
             }
         });
 
         int result = chooser.showOpenDialog(frame);
         if (result == JFileChooser.APPROVE_OPTION) {
             try {
-                currentJar = chooser.getSelectedFile();
+                // currentJar only moves over once the new archive is shown
+                final File opening = chooser.getSelectedFile();
             
-            if (currentJar == null || !currentJar.exists()) {
+            if (opening == null || !opening.exists()) {
                 JOptionPane.showMessageDialog(frame, "[!] Invalid .jar file",
                         "[!] Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
                 
-SwingWorker<JarIndex, Void> worker = new SwingWorker<>() {
+SwingWorker<JarIndex, int[]> worker = new SwingWorker<>() {
+    // the index being scanned, shown as soon as its first classes come in
+    private volatile JarIndex scanning;
+    private boolean shown;
+
     @Override
     protected JarIndex doInBackground() throws Exception {
-        if (currentJar == null) {
+        if (opening == null) {
             throw new IllegalArgumentException(".jar file is null");
         }
 
-        if (!currentJar.exists() || !currentJar.isFile() || !currentJar.getName().endsWith(".jar")) {
-            throw new IllegalArgumentException("Not a valid .jar file: " + currentJar.getAbsolutePath());
+        if (!opening.exists() || !(opening.isDirectory() || isSupportedArchive(opening))) {
+            throw new IllegalArgumentException("Not a valid .jar file: " + opening.getAbsolutePath());
         }
         
         try {
-            return JarIndex.fromJar(currentJar.toPath());
+            return JarIndex.fromJar(opening.toPath(), false, (scanned, fromId, toId) -> {
+                scanning = scanned;
+                publish(new int[] { fromId, toId });
+            });
         } catch (IOException e) {
             throw new IOException("[!] Failed to process .jar file: " + e.getMessage(), e);
         }
     }
 
+    @Override
+    protected void process(java.util.List<int[]> chunks) {
+        // chunks can still arrive once the scan is over, done() takes care of the rest then
+        if (isDone()) return;
+        if (!shown) {
+            shown = true;
+            showIndex(scanning, opening);
+        }
+        if (index != scanning) return;
+        appendIndexedClasses();
+        statusBar.setText("[!] Indexing " + opening.getName() + ": " + index.getClassTable().size() + " classes so far");
+    }
+
     @Override
     protected void done() {
+        JarIndex opened;
         try {
-            index = get();
-            updateClassTree();
-            statusBar.setText("[!] Loaded: " + currentJar.getName());
-
-            if (settings.isDiscordRichPresence()) {
-                discordService.setCurrentJar(currentJar.getName());
-            }
-            // initialize usageAnalyzer after index is set
-            usageAnalyzer = new UsageAnalyzer(index);
-            bytecodeAssembler = new BytecodeAssembler(index);
+            opened = get();
         } catch (Exception ex) {
+            // drop whatever part of the archive was already shown
+            if (shown && index == scanning) {
+                index = null;
+                classPath = null;
+                classTree.setModel(new DefaultTreeModel(new DefaultMutableTreeNode("Loading...")));
+            }
             JOptionPane.showMessageDialog(frame, "[!] Error opening .jar file: " + ex.getMessage(),
                     "[!] Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (!shown) {
+            shown = true;
+            showIndex(opened, opening);
+        }
+        if (index != opened) return;
+        // showIndex sized things for the first classes only, a huge archive needs its off-heap store now
+        applyCacheSettings();
+        appendIndexedClasses();
+        int nestedJars = index.libraryNames().size();
+        statusBar.setText("[!] Loaded: " + opening.getName()
+                + (nestedJars > 0 ? " (" + nestedJars + " nested jars)" : ""));
+
+        if (settings.isPreloadClasses()) {
+            startPreload();
         }
+        restartBackgroundDecompiler();
     }
 };
 worker.execute();
@@ -129,74 +199,517 @@ worker.execute();
         }
     }
 
-    private void updateClassTree() {
-        DefaultMutableTreeNode root = new DefaultMutableTreeNode(currentJar.getName());
-        Map<String, DefaultMutableTreeNode> packageNodes = new HashMap<>();
-
-        for (String className : index.classNames()) {
-            String[] parts = className.split("\\.");
-            StringBuilder packagePath = new StringBuilder();
-            DefaultMutableTreeNode parentNode = root;
-
-            for (int i = 0; i < parts.length - 1; i++) {
-                if (i > 0) packagePath.append(".");
-                packagePath.append(parts[i]);
-                String pkg = packagePath.toString();
-
-                if (!packageNodes.containsKey(pkg)) {
-                    DefaultMutableTreeNode node = new DefaultMutableTreeNode(parts[i]);
-                    packageNodes.put(pkg, node);
-                    parentNode.add(node);
+    /**
+     * Switches the window over to a newly opened archive, which may still be being scanned.
+     */
+    private void showIndex(JarIndex opened, File jar) {
+        AutoCloseable previous = workspace != null ? workspace : index;
+        currentJar = jar;
+        index = opened;
+        classPath = index;
+        workspace = null;
+        if (preloader != null) {
+            preloader.cancel();
+            preloader = null;
+        }
+        if (backgroundDecompiler != null) {
+            backgroundDecompiler.cancel();
+            backgroundDecompiler = null;
+        }
+        stopPrefetcher();
+        applyCacheSettings();
+        applyTargetRelease();
+        // release the old archive handles now that the new one is in place
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (Exception closeEx) {
+                System.err.println("[!] Failed to close previous .jar file: " + closeEx.getMessage());
+            }
+        }
+        filterClassTree();
+        final String jarName = jar.getName();
+        // only happens when the jar was restored from an outdated index snapshot
+        opened.setStaleListener(() -> SwingUtilities.invokeLater(() -> {
+            if (index == opened) {
+                statusBar.setText("[!] " + jarName + " changed on disk since it was last indexed, reopen it to refresh");
+            }
+        }));
+        // directories are watched, keep the tree in step with rebuilds
+        opened.addChangeListener((added, changed, removed) -> SwingUtilities.invokeLater(() -> {
+            if (index != opened) return;
+            // a workspace refreshes the tree itself, once it knows the new owners
+            if (workspace == null && (!added.isEmpty() || !removed.isEmpty())) {
+                updateClassTree();
+            }
+            String message = "[!] Reindexed " + jarName + ": " + added.size() + " added, "
+                    + changed.size() + " changed, " + removed.size() + " removed";
+            if (currentClass != null && (changed.contains(currentClass) || removed.contains(currentClass))) {
+                message += " (" + currentClass + " changed, decompile it again to refresh)";
+            }
+            statusBar.setText(message);
+        }));
+
+        if (settings.isDiscordRichPresence()) {
+            discordService.setCurrentJar(jarName);
+        }
+        // initialize usageAnalyzer after index is set
+        usageAnalyzer = new UsageAnalyzer(classPath);
+        bytecodeAssembler = new BytecodeAssembler(classPath);
+    }
+
+    private static boolean isSupportedArchive(File file) {
+        String name = file.getName().toLowerCase();
+        return file.isFile() && (name.endsWith(".jar") || name.endsWith(".war") || name.endsWith(".jmod"));
+    }
+
+    private void applyCacheSettings() {
+        DecompilerService.getResultCache().setCapacity(settings.getResultCacheMb() * 1024L * 1024L / 2);
+        applyDiskSourceCache();
+        if (index == null) return;
+        // sources are weighed in chars, two bytes each
+        index.setCacheCapacity(settings.getClassCacheMb() * 1024L * 1024L,
+                settings.getSourceCacheMb() * 1024L * 1024L / 2);
+        if (workspace != null) {
+            workspace.setCacheCapacity(settings.getClassCacheMb() * 1024L * 1024L,
+                    settings.getSourceCacheMb() * 1024L * 1024L / 2);
+        }
+        // huge archives keep their class files off-heap so the GC does not stall the UI
+        if (settings.getOffHeapStoreMb() > 0 && index.classNames().size() >= JarIndex.OFF_HEAP_CLASS_THRESHOLD) {
+            index.enableOffHeapStore(settings.getOffHeapStoreMb() * 1024L * 1024L);
+        }
+    }
+
+    private void applyTargetRelease() {
+        int release = settings.getTargetRelease() > 0 ? settings.getTargetRelease() : Runtime.version().feature();
+        if (workspace != null) {
+            workspace.setTargetRelease(release);
+        } else if (index != null) {
+            index.setTargetRelease(release);
+        }
+    }
+
+    private void showTargetReleaseDialog() {
+        String input = JOptionPane.showInputDialog(frame,
+                "Java release used to pick classes from multi-release JARs (0 = " + Runtime.version().feature() + ", the running JVM):",
+                settings.getTargetRelease());
+        if (input == null) return;
+        try {
+            int release = Integer.parseInt(input.trim());
+            if (release < 0) throw new NumberFormatException();
+            settings.setTargetRelease(release);
+            settings.saveSettings();
+            applyTargetRelease();
+            statusBar.setText("[!] Target release set to " + (release > 0 ? release : Runtime.version().feature()));
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(frame, "[!] Please enter a Java release number, or 0.", "[!] Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void applyDiskSourceCache() {
+        DiskSourceCache disk = DecompilerService.getDiskCache();
+        if (!settings.isDiskSourceCache()) {
+            DecompilerService.setDiskCache(null);
+            return;
+        }
+        long capacity = settings.getDiskSourceCacheMb() * 1024L * 1024L;
+        if (disk != null) {
+            disk.setCapacity(capacity);
+            return;
+        }
+        try {
+            DecompilerService.setDiskCache(new DiskSourceCache(AppSettings.getCacheDirectory().resolve("sources"), capacity));
+        } catch (IOException ex) {
+            statusBar.setText("[!] Could not open the source cache: " + ex.getMessage());
+        }
+    }
+
+    private void toggleDiskSourceCache(boolean enabled) {
+        settings.setDiskSourceCache(enabled);
+        settings.saveSettings();
+        applyDiskSourceCache();
+
+        String status = enabled ? "enabled" : "disabled";
+        statusBar.setText("[!] Persistent source cache " + status);
+    }
+
+    private void showCacheStatistics() {
+        if (index == null) {
+            JOptionPane.showMessageDialog(frame, "No JAR file loaded.", "Cache Statistics", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        String message = "Class bytes: " + index.getClassCache() + "\n"
+                + "Decompiled sources: " + index.getDecompiledCodeCache() + "\n"
+                + "Decompilation results: " + DecompilerService.getResultCache();
+        if (settings.isRaceDecompilers()) {
+            message += "\nDecompiler races:\n" + DecompilerService.getRaceStatistics();
+        }
+        if (DecompilerService.getDiskCache() != null) {
+            message += "\nSource cache on disk: " + DecompilerService.getDiskCache();
+        }
+        if (workspace != null) {
+            message += "\nWorkspace class budget: " + workspace.getClassBudget().getWeight() + "/"
+                    + workspace.getClassBudget().getCapacity() + " bytes across " + workspace.getMembers().size() + " archives";
+        }
+        if (index.getOffHeapStore() != null) {
+            message += "\nOff-heap class store: " + index.getOffHeapStore();
+        }
+        JOptionPane.showMessageDialog(frame, message, "Cache Statistics", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private void startPreload() {
+        final JarIndex target = index;
+        final String jarName = currentJar.getName();
+        final ClassPreloader task = new ClassPreloader(target, settings.getPreloadBudgetMb() * 1024L * 1024L);
+        preloader = task;
+
+        SwingWorker<Integer, int[]> worker = new SwingWorker<>() {
+            @Override
+            protected Integer doInBackground() {
+                return task.run((done, total) -> publish(new int[] { done, total }));
+            }
+
+            @Override
+            protected void process(java.util.List<int[]> chunks) {
+                if (preloader != task) return;
+                int[] latest = chunks.get(chunks.size() - 1);
+                statusBar.setText("[!] Preloading classes: " + latest[0] + "/" + latest[1]);
+            }
+
+            @Override
+            protected void done() {
+                if (preloader != task) return;
+                preloader = null;
+                try {
+                    int loaded = get();
+                    statusBar.setText("[!] Loaded: " + jarName + " (" + loaded + " classes preloaded, "
+                            + (task.getUsedBytes() / (1024 * 1024)) + " MB)");
+                } catch (Exception ex) {
+                    statusBar.setText("[!] Preloading failed: " + ex.getMessage());
                 }
-                parentNode = packageNodes.get(pkg);
             }
+        };
+        worker.execute();
+    }
 
-            DefaultMutableTreeNode classNode = new DefaultMutableTreeNode(parts[parts.length - 1]);
-            classNode.setUserObject(className);
-            parentNode.add(classNode);
+    /**
+     * Starts decompiling everything on the class path in the background, if that is turned on,
+     * dropping whatever run was going for the previous class path.
+     */
+    private void restartBackgroundDecompiler() {
+        if (backgroundDecompiler != null) {
+            backgroundDecompiler.cancel();
+            backgroundDecompiler = null;
         }
+        if (classPath == null || !settings.isBackgroundDecompilation()) return;
+
+        final BackgroundDecompiler task = new BackgroundDecompiler(classPath, settings);
+        backgroundDecompiler = task;
+        task.start((done, total, rate) -> SwingUtilities.invokeLater(() -> {
+            if (backgroundDecompiler != task) return;
+            if (done >= total) {
+                statusBar.setText("[!] Decompiled all " + total + " classes in the background ("
+                        + String.format("%.1f", rate) + " classes/s)");
+                return;
+            }
+            long eta = rate > 0 ? (long) ((total - done) / rate) : -1;
+            statusBar.setText("[!] Decompiling in background: " + done + "/" + total + " ("
+                    + String.format("%.1f", rate) + " classes/s"
+                    + (eta >= 0 ? ", ETA " + (eta / 60) + ":" + String.format("%02d", eta % 60) : "")
+                    + (task.isPaused() ? ", paused" : "") + ")");
+        }));
+    }
 
-        classTree.setModel(new DefaultTreeModel(root));
-        SwingUtil.expandAll(classTree);
-        filterClassTree(); // Call filterClassTree after updating the tree content
+    /**
+     * Starts decompiling the classes {@code className} refers to once the user goes idle, unless
+     * the background decompiler is going through all of them anyway.
+     */
+    private void prefetchAround(String className) {
+        if (backgroundDecompiler != null || classPath == null || settings.getPrefetchDepth() <= 0) return;
+        if (prefetcher == null) {
+            prefetcher = new Prefetcher(classPath, settings);
+        }
+        prefetcher.prefetch(className);
     }
 
-    private void filterClassTree() {
-        if (index == null || currentJar == null) return;
+    private void stopPrefetcher() {
+        if (prefetcher != null) {
+            prefetcher.cancel();
+            prefetcher = null;
+        }
+    }
 
-        String searchTerm = searchField.getText().toLowerCase();
-        DefaultMutableTreeNode root = new DefaultMutableTreeNode(currentJar.getName());
-        Map<String, DefaultMutableTreeNode> packageNodes = new HashMap<>();
-
-        for (String className : index.classNames()) {
-            if (searchTerm.isEmpty() || className.toLowerCase().contains(searchTerm)) {
-                String[] parts = className.split("\\.");
-                StringBuilder packagePath = new StringBuilder();
-                DefaultMutableTreeNode parentNode = root;
-
-                for (int i = 0; i < parts.length - 1; i++) {
-                    if (i > 0) packagePath.append(".");
-                    packagePath.append(parts[i]);
-                    String pkg = packagePath.toString();
-
-                    if (!packageNodes.containsKey(pkg)) {
-                        DefaultMutableTreeNode node = new DefaultMutableTreeNode(parts[i]);
-                        packageNodes.put(pkg, node);
-                        parentNode.add(node);
+    private void showPrefetchDialog() {
+        JSpinner depth = new JSpinner(new SpinnerNumberModel(settings.getPrefetchDepth(), 0, 3, 1));
+        JSpinner cpu = new JSpinner(new SpinnerNumberModel(Math.max(5, Math.min(100, settings.getPrefetchCpuPercent())), 5, 100, 5));
+        JPanel panel = new JPanel(new GridLayout(2, 2, 8, 4));
+        panel.add(new JLabel("Reference depth (0 = off):"));
+        panel.add(depth);
+        panel.add(new JLabel("CPU share of one core (%):"));
+        panel.add(cpu);
+        int choice = JOptionPane.showConfirmDialog(frame, panel, "Prefetch Referenced Classes",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (choice != JOptionPane.OK_OPTION) return;
+
+        settings.setPrefetchDepth((Integer) depth.getValue());
+        settings.setPrefetchCpuPercent((Integer) cpu.getValue());
+        settings.saveSettings();
+        if (settings.getPrefetchDepth() <= 0) {
+            stopPrefetcher();
+            statusBar.setText("[!] Prefetching disabled");
+        } else {
+            statusBar.setText("[!] Prefetching " + settings.getPrefetchDepth() + " reference(s) deep using up to "
+                    + settings.getPrefetchCpuPercent() + "% of a core");
+        }
+    }
+
+    private void toggleRaceDecompilers(boolean enabled) {
+        settings.setRaceDecompilers(enabled);
+        settings.saveSettings();
+
+        String status = enabled ? "enabled" : "disabled";
+        statusBar.setText("[!] Decompiler race mode " + status);
+    }
+
+    private void toggleBackgroundDecompilation(boolean enabled) {
+        settings.setBackgroundDecompilation(enabled);
+        settings.saveSettings();
+        if (enabled && backgroundDecompiler != null) return;
+        restartBackgroundDecompiler();
+
+        String status = enabled ? "enabled" : "disabled";
+        statusBar.setText("[!] Background decompilation " + status);
+    }
+
+    private void togglePreloadClasses(boolean enabled) {
+        settings.setPreloadClasses(enabled);
+        settings.saveSettings();
+
+        if (enabled && index != null && preloader == null) {
+            startPreload();
+        }
+
+        String status = enabled ? "enabled" : "disabled";
+        statusBar.setText("[!] Class preloading " + status);
+    }
+
+    private void showPreloadBudgetDialog() {
+        String input = JOptionPane.showInputDialog(frame, "Maximum memory used by class preloading (MB):",
+                settings.getPreloadBudgetMb());
+        if (input == null) return;
+        try {
+            int budget = Integer.parseInt(input.trim());
+            if (budget <= 0) throw new NumberFormatException();
+            settings.setPreloadBudgetMb(budget);
+            settings.saveSettings();
+            statusBar.setText("[!] Preload memory budget set to " + budget + " MB");
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(frame, "[!] Please enter a positive number of megabytes.", "[!] Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void onAddDependencies() {
+        if (index == null || currentJar == null) {
+            JOptionPane.showMessageDialog(frame, "[!] Open the application .jar file first.", "[!] Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        JFileChooser chooser = new JFileChooser(currentJar.getParentFile());
+        chooser.setMultiSelectionEnabled(true);
+        chooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.isDirectory() || f.getName().toLowerCase().endsWith(".jar");
+            }
+
+            @Override
+            public String getDescription() {
+                return "JAR Files (*.jar)";
+            }
+        });
+
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+
+        // keep the classpath order predictable: application first, then dependencies by name
+        java.util.List<java.nio.file.Path> dependencies = new ArrayList<>();
+        for (File file : chooser.getSelectedFiles()) {
+            if (!file.equals(currentJar)) {
+                dependencies.add(file.toPath());
+            }
+        }
+        dependencies.sort(Comparator.comparing(p -> p.getFileName().toString()));
+        if (dependencies.isEmpty()) return;
+
+        final java.util.List<JarIndex> existing = workspace != null ? workspace.getMembers() : java.util.List.of(index);
+        statusBar.setText("[!] Indexing " + dependencies.size() + " dependency jars...");
+
+        SwingWorker<Workspace, String> worker = new SwingWorker<>() {
+            @Override
+            protected Workspace doInBackground() throws Exception {
+                return Workspace.withDependencies(existing, dependencies,
+                        (archive, done, total) -> publish("[!] Indexed " + archive.getFileName() + " (" + done + "/" + total + ")"));
+            }
+
+            @Override
+            protected void process(java.util.List<String> chunks) {
+                statusBar.setText(chunks.get(chunks.size() - 1));
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    Workspace previous = workspace;
+                    workspace = get();
+                    classPath = workspace;
+                    // the old workspace's members live on in the new one
+                    if (previous != null) {
+                        previous.detach();
                     }
-                    parentNode = packageNodes.get(pkg);
+                    final Workspace opened = workspace;
+                    workspace.setChangeListener((added, changed, removed) -> SwingUtilities.invokeLater(() -> {
+                        if (workspace == opened && (!added.isEmpty() || !removed.isEmpty())) {
+                            updateClassTree();
+                        }
+                    }));
+                    stopPrefetcher();
+                    applyCacheSettings();
+                    applyTargetRelease();
+                    usageAnalyzer = new UsageAnalyzer(classPath);
+                    bytecodeAssembler = new BytecodeAssembler(classPath);
+                    updateClassTree();
+                    restartBackgroundDecompiler();
+
+                    int conflicts = workspace.getConflicts().size();
+                    statusBar.setText("[!] Workspace: " + workspace.getMembers().size() + " archives, "
+                            + classPath.classNames().size() + " classes"
+                            + (conflicts > 0 ? ", " + conflicts + " conflicting classes (first definition wins)" : ""));
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(frame, "[!] Error opening dependencies: " + ex.getMessage(),
+                            "[!] Error", JOptionPane.ERROR_MESSAGE);
                 }
+            }
+        };
+        worker.execute();
+    }
+
+    private void showWorkspaceConflicts() {
+        if (workspace == null || workspace.getConflicts().isEmpty()) {
+            JOptionPane.showMessageDialog(frame, "No conflicting classes.", "Workspace Conflicts", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, java.util.List<JarIndex>> conflict : workspace.getConflicts().entrySet()) {
+            report.append(conflict.getKey()).append('\n');
+            for (JarIndex member : conflict.getValue()) {
+                report.append("    ").append(member.getJarPath().getFileName())
+                        .append(member == workspace.indexFor(conflict.getKey()) ? "  (used)" : "").append('\n');
+            }
+        }
+        JTextArea area = SwingUtil.monoArea();
+        area.setText(report.toString());
+        area.setEditable(false);
+        area.setCaretPosition(0);
+        JScrollPane scroll = new JScrollPane(area);
+        scroll.setPreferredSize(new Dimension(700, 400));
+        JOptionPane.showMessageDialog(frame, scroll, "Workspace Conflicts", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private void updateClassTree() {
+        filterClassTree();
+    }
+
+    private void filterClassTree() {
+        if (index == null || currentJar == null) return;
+        if (backgroundDecompiler != null) {
+            backgroundDecompiler.noteUserActivity();
+        }
+        if (prefetcher != null) {
+            prefetcher.noteUserActivity();
+        }
 
-                DefaultMutableTreeNode classNode = new DefaultMutableTreeNode(parts[parts.length - 1]);
-                classNode.setUserObject(className);
-                parentNode.add(classNode);
+        DefaultMutableTreeNode root = new DefaultMutableTreeNode(currentJar.getName());
+        treeGroups = new HashMap<>();
+        java.util.List<JarIndex> members = workspace != null ? workspace.getMembers() : java.util.List.of(index);
+        int shown = 0;
+        for (JarIndex member : members) {
+            // read once, classes published after this are left to appendIndexedClasses
+            int limit = member.getClassTable().idLimit();
+            addClassNodes(root, null, member, member == members.get(0), 0, limit);
+            if (member == index) {
+                shown = limit;
             }
         }
+        treeClassCount = shown;
 
         classTree.setModel(new DefaultTreeModel(root));
         SwingUtil.expandAll(classTree);
     }
 
+    /**
+     * Adds the classes the open archive indexed since the tree was last built, without rebuilding it.
+     */
+    private void appendIndexedClasses() {
+        int limit = index.getClassTable().idLimit();
+        if (limit <= treeClassCount) return;
+        DefaultTreeModel model = (DefaultTreeModel) classTree.getModel();
+        addClassNodes((DefaultMutableTreeNode) model.getRoot(), model, index, true, treeClassCount, limit);
+        treeClassCount = limit;
+        SwingUtil.expandAll(classTree);
+    }
+
+    /**
+     * @param model told about every inserted node, null while the tree is built off-screen
+     */
+    private void addClassNodes(DefaultMutableTreeNode root, DefaultTreeModel model, JarIndex member, boolean primary, int fromId, int toId) {
+        String searchTerm = searchField.getText().toLowerCase();
+        String archive = member.getJarPath().getFileName().toString();
+        member.getClassTable().forEachClass(fromId, toId, (id, pkg, simpleName, library) -> {
+            String className = null;
+            if (!searchTerm.isEmpty()) {
+                className = pkg.qualify(simpleName);
+                if (!className.toLowerCase().contains(searchTerm)) return;
+            }
+            if (workspace != null) {
+                if (className == null) className = pkg.qualify(simpleName);
+                // classes shadowed by an earlier member are not shown
+                if (workspace.indexFor(className) != member) return;
+            }
+            // classes from nested jars and workspace dependencies get their own subtree per library
+            String group = primary ? library : library == null ? archive : archive + "!" + library;
+            // one map per library subtree, keyed by the trie's own package nodes so no names get built
+            Map<PackageTrie.PackageNode, DefaultMutableTreeNode> packageNodes =
+                    treeGroups.computeIfAbsent(group == null ? "" : group + "!", k -> new HashMap<>());
+            if (packageNodes.isEmpty()) {
+                DefaultMutableTreeNode groupNode = root;
+                if (group != null) {
+                    groupNode = new DefaultMutableTreeNode(group);
+                    insertNode(model, root, groupNode);
+                }
+                packageNodes.put(member.getClassTable().getRoot(), groupNode);
+            }
+            DefaultMutableTreeNode classNode = new DefaultMutableTreeNode(className != null ? className : pkg.qualify(simpleName));
+            insertNode(model, packageNode(model, packageNodes, pkg), classNode);
+        });
+    }
+
+    private DefaultMutableTreeNode packageNode(DefaultTreeModel model, Map<PackageTrie.PackageNode, DefaultMutableTreeNode> packageNodes, PackageTrie.PackageNode pkg) {
+        DefaultMutableTreeNode node = packageNodes.get(pkg);
+        if (node == null) {
+            node = new DefaultMutableTreeNode(pkg.getSegment());
+            insertNode(model, packageNode(model, packageNodes, pkg.getParent()), node);
+            packageNodes.put(pkg, node);
+        }
+        return node;
+    }
+
+    private static void insertNode(DefaultTreeModel model, DefaultMutableTreeNode parent, DefaultMutableTreeNode child) {
+        parent.add(child);
+        if (model != null) {
+            model.nodesWereInserted(parent, new int[] { parent.getChildCount() - 1 });
+        }
+    }
+
     private JPopupMenu createClassTreePopupMenu() {
         JPopupMenu popupMenu = new JPopupMenu();
 
@@ -225,47 +738,125 @@ worker.execute();
         if (node.isLeaf() && nodeInfo instanceof String) {
             String className = (String) nodeInfo;
             currentClass = className;
-            
+
+            // whatever was running for the previous selection is no longer wanted
+            if (decompileJob != null) {
+                decompileJob.cancel(true);
+            }
+            if (decompileTimeout != null) {
+                decompileTimeout.stop();
+            }
+            final long job = ++decompileGeneration;
+            final ClassPath source = classPath;
+            if (prefetcher != null) {
+                prefetcher.noteUserActivity();
+            }
+
+            outputArea.setText("// Decompiling " + className + "...");
+            statusBar.setText("[!] Decompiling: " + className);
             try {
-                String decompiled;
-                if (settings.isUseCfrDecompiler()) {
-                    decompiled = DecompilerService.decompileWithCFR(index, className, settings);
-                } else {
-                    decompiled = DecompilerService.decompile(index, className, settings);
-                }
-    
-                outputArea.setText(decompiled);
-                SyntaxHighlighter.highlightJava(outputArea);
-    
-                bytecodeArea.setText(Disassembler.disassemble(index, className));
-                
-                String statusMessage = "[!] Decompiled: " + className;
-                if (settings.isZkmDeobfuscation() || settings.isAllatoriDeobfuscation()) {
-                    statusMessage += " (with";
-                    if (settings.isZkmDeobfuscation()) {
-                        statusMessage += " ZKM";
-                    }
-                    if (settings.isZkmDeobfuscation() && settings.isAllatoriDeobfuscation()) {
-                        statusMessage += " &";
-                    }
-                    if (settings.isAllatoriDeobfuscation()) {
-                        statusMessage += " Allatori";
-                    }
-                    statusMessage += " deobfuscation)";
-                }
-                statusBar.setText(statusMessage);
-                
-                if (settings.isDiscordRichPresence()) {
-                    discordService.setCurrentClass(className);
-                    discordService.setDecompilerBackend(settings.isUseCfrDecompiler() ? "CFR" : "Procyon");
-                }
+                bytecodeArea.setText(Disassembler.disassemble(source, className));
             } catch (Exception ex) {
-                outputArea.setText("[!] Failed to decompile: " + ex.getMessage());
-                statusBar.setText("[!] Error decompiling: " + className);
+                bytecodeArea.setText("[!] Failed to disassemble: " + ex.getMessage());
+            }
+
+            decompileJob = decompileExecutor.submit(() -> {
+                String decompiled = null;
+                Exception failure = null;
+                try {
+                    decompiled = decompileNow(source, className);
+                } catch (Exception ex) {
+                    failure = ex;
+                }
+                // cancelled or timed out meanwhile, nobody is waiting for this any more
+                if (Thread.currentThread().isInterrupted()) return;
+                final String result = decompiled;
+                final Exception error = failure;
+                SwingUtilities.invokeLater(() -> showDecompiled(job, className, result, error));
+            });
+
+            int timeoutSeconds = settings.getDecompileTimeoutSeconds();
+            if (timeoutSeconds > 0) {
+                final Future<?> running = decompileJob;
+                decompileTimeout = new javax.swing.Timer(timeoutSeconds * 1000, e -> {
+                    if (job != decompileGeneration || running.isDone()) return;
+                    running.cancel(true);
+                    // the decompiler does not stop when interrupted, a reselect must not wait on it
+                    DecompilerService.abandonDecompilation(source, className);
+                    decompileGeneration++;
+                    showDisassemblyFallback(className, timeoutSeconds);
+                });
+                decompileTimeout.setRepeats(false);
+                decompileTimeout.start();
+            }
+        }
+    }
+
+    private String decompileNow(ClassPath source, String className) throws Exception {
+        BackgroundDecompiler background = backgroundDecompiler;
+        if (background != null) {
+            // goes ahead of the queue, or waits for the worker that already has it
+            return background.decompile(className);
+        } else if (settings.isRaceDecompilers()) {
+            return DecompilerService.decompileRacing(source, className, settings);
+        } else if (settings.isUseCfrDecompiler()) {
+            return DecompilerService.decompileWithCFR(source, className, settings);
+        } else {
+            return DecompilerService.decompile(source, className, settings);
+        }
+    }
+
+    private void showDecompiled(long job, String className, String decompiled, Exception failure) {
+        // a late result for a class that is no longer selected
+        if (job != decompileGeneration) return;
+        if (decompileTimeout != null) {
+            decompileTimeout.stop();
+        }
+        if (failure != null) {
+            outputArea.setText("[!] Failed to decompile: " + failure.getMessage());
+            statusBar.setText("[!] Error decompiling: " + className);
+            return;
+        }
+
+        outputArea.setText(decompiled);
+        SyntaxHighlighter.highlightJava(outputArea);
+        prefetchAround(className);
+
+        // in race mode either backend may have produced it
+        boolean raced = settings.isRaceDecompilers() && backgroundDecompiler == null;
+        boolean cfr = raced ? decompiled.startsWith("/* Decompiled with CFR") : settings.isUseCfrDecompiler();
+        String statusMessage = "[!] Decompiled: " + className;
+        if (raced) {
+            statusMessage += " (race won by " + (cfr ? "CFR" : "Procyon") + ")";
+        }
+        if (settings.isZkmDeobfuscation() || settings.isAllatoriDeobfuscation()) {
+            statusMessage += " (with";
+            if (settings.isZkmDeobfuscation()) {
+                statusMessage += " ZKM";
             }
+            if (settings.isZkmDeobfuscation() && settings.isAllatoriDeobfuscation()) {
+                statusMessage += " &";
+            }
+            if (settings.isAllatoriDeobfuscation()) {
+                statusMessage += " Allatori";
+            }
+            statusMessage += " deobfuscation)";
+        }
+        statusBar.setText(statusMessage);
+
+        if (settings.isDiscordRichPresence()) {
+            discordService.setCurrentClass(className);
+            discordService.setDecompilerBackend(cfr ? "CFR" : "Procyon");
         }
     }
 
+    private void showDisassemblyFallback(String className, int timeoutSeconds) {
+        outputArea.setText("// [!] Decompiling " + className + " took longer than " + timeoutSeconds
+                + "s and was cancelled, showing its bytecode instead\n\n" + bytecodeArea.getText());
+        outputArea.setCaretPosition(0);
+        statusBar.setText("[!] Decompiler timed out on " + className + ", showing disassembly");
+    }
+
     private void findUsagesOfSelectedClass() {
         DefaultMutableTreeNode node = (DefaultMutableTreeNode) classTree.getLastSelectedPathComponent();
         if (node == null || !node.isLeaf() || !(node.getUserObject() instanceof String)) {
@@ -285,11 +876,28 @@ worker.execute();
             return;
         }
 
-        Set<String> usages = usageAnalyzer.findUsages(className);
+        // the first search reads every class header for the hierarchy, keep that off the EDT
+        final UsageAnalyzer analyzer = usageAnalyzer;
+        statusBar.setText("[!] Finding usages of " + className + "...");
+        new SwingWorker<Set<String>, Void>() {
+            @Override
+            protected Set<String> doInBackground() {
+                return analyzer.findUsages(className);
+            }
 
-        usageResultsPanel.displayUsages(usages);
-        tabs.setSelectedComponent(usageResultsPanel);
-        statusBar.setText("[!] Found usages for: " + className);
+            @Override
+            protected void done() {
+                if (analyzer != usageAnalyzer) return;
+                try {
+                    usageResultsPanel.displayUsages(get());
+                } catch (Exception ex) {
+                    statusBar.setText("[!] Failed to find usages for " + className + ": " + ex.getMessage());
+                    return;
+                }
+                tabs.setSelectedComponent(usageResultsPanel);
+                statusBar.setText("[!] Found usages for: " + className);
+            }
+        }.execute();
     }
 
     private void toggleDiscordRpc(boolean enabled) {
@@ -356,13 +964,13 @@ worker.execute();
 
         if (index != null) {
             try {
-                byte[] originalBytes = index.getClassBytes(currentClass);
+                byte[] originalBytes = classPath.getClassBytes(currentClass);
                 byte[] modifiedBytes = BytecodeModifier.addNoOpMethod(originalBytes, currentClass);
 
-                index.putClassBytes(currentClass, modifiedBytes);
+                classPath.putClassBytes(currentClass, modifiedBytes);
                 statusBar.setText("[!] Bytecode for " + currentClass + " modified programmatically and updated in memory.");
 
-                bytecodeArea.setText(Disassembler.disassemble(index, currentClass));
+                bytecodeArea.setText(Disassembler.disassemble(classPath, currentClass));
 
             } catch (Exception e) {
                 JOptionPane.showMessageDialog(frame, "[!] Error modifying/assembling bytecode: " + e.getMessage(), "[!] Error", JOptionPane.ERROR_MESSAGE);
@@ -397,7 +1005,20 @@ worker.execute();
             File outputFile = chooser.getSelectedFile();
             try {
                 index.saveModifiedJar(outputFile.toPath());
-                statusBar.setText("[!] Modified JAR saved to: " + outputFile.getName());
+                String status = "[!] Modified JAR saved to: " + outputFile.getName();
+                if (workspace != null) {
+                    // only the application jar is written, dependency edits stay in memory
+                    int dependencyEdits = 0;
+                    for (JarIndex member : workspace.getMembers()) {
+                        if (member != index) {
+                            dependencyEdits += member.getClassCache().pinnedEntries().size();
+                        }
+                    }
+                    if (dependencyEdits > 0) {
+                        status += " (" + dependencyEdits + " edited dependency classes not included)";
+                    }
+                }
+                statusBar.setText(status);
             } catch (IOException ex) {
                 JOptionPane.showMessageDialog(frame,
                     "[!] Error saving modified JAR: " + ex.getMessage(),
@@ -406,6 +1027,62 @@ worker.execute();
         }
     }
 
+    private void saveModifiedPatch() {
+        if (index == null || currentJar == null) {
+            JOptionPane.showMessageDialog(frame, "[!] No JAR file loaded.", "[!] Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        int edits = index.getClassCache().pinnedEntries().size();
+        if (edits == 0) {
+            JOptionPane.showMessageDialog(frame, "[!] No classes have been modified.", "[!] Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(currentJar.getName().replaceAll("\\.[^.]+$", "") + "-patch.zip"));
+        if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+
+        File outputFile = chooser.getSelectedFile();
+        try {
+            index.saveModifiedPatch(outputFile.toPath());
+            statusBar.setText("[!] Patch with " + edits + " classes saved to: " + outputFile.getName());
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(frame,
+                "[!] Error saving patch: " + ex.getMessage(),
+                "[!] Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void applyPatch() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Select the base JAR");
+        if (currentJar != null && currentJar.isFile()) {
+            chooser.setSelectedFile(currentJar);
+        }
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+        File base = chooser.getSelectedFile();
+
+        chooser = new JFileChooser(base.getParentFile());
+        chooser.setDialogTitle("Select the patch");
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+        File patch = chooser.getSelectedFile();
+
+        chooser = new JFileChooser(base.getParentFile());
+        chooser.setDialogTitle("Save patched JAR as");
+        chooser.setSelectedFile(new File(base.getParentFile(), base.getName().replaceAll("\\.[^.]+$", "") + "-patched.jar"));
+        if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+        File output = chooser.getSelectedFile();
+
+        try {
+            ArchivePatch.apply(base.toPath(), patch.toPath(), output.toPath());
+            statusBar.setText("[!] Patched JAR saved to: " + output.getName());
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(frame,
+                "[!] Error applying patch: " + ex.getMessage(),
+                "[!] Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     private void toggleDecompilerBackend() {
         settings.setUseCfrDecompiler(useCfrMenuItem.isSelected());
         settings.saveSettings();
@@ -478,6 +1155,13 @@ worker.execute();
             }
         });
         
+        fileMenu.add(new AbstractAction("Add dependency .jar files...") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                onAddDependencies();
+            }
+        });
+        
         fileMenu.add(new AbstractAction("Save source as .java file") {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -499,6 +1183,18 @@ worker.execute();
                 saveModifiedJar();
             }
         });
+        fileMenu.add(new AbstractAction("Save modified classes as patch...") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                saveModifiedPatch();
+            }
+        });
+        fileMenu.add(new AbstractAction("Apply patch to JAR...") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                applyPatch();
+            }
+        });
 
         fileMenu.addSeparator();
         fileMenu.add(new AbstractAction("Exit") {
@@ -585,6 +1281,44 @@ worker.execute();
 
         settingsMenu.addSeparator();
 
+        preloadClassesMenuItem = new JCheckBoxMenuItem("Preload all classes after opening",
+                settings.isPreloadClasses());
+        preloadClassesMenuItem.addActionListener(e ->
+                togglePreloadClasses(preloadClassesMenuItem.isSelected()));
+        settingsMenu.add(preloadClassesMenuItem);
+
+        var backgroundDecompilationMenuItem = new JCheckBoxMenuItem("Decompile all classes in the background",
+                settings.isBackgroundDecompilation());
+        backgroundDecompilationMenuItem.addActionListener(e ->
+                toggleBackgroundDecompilation(backgroundDecompilationMenuItem.isSelected()));
+        settingsMenu.add(backgroundDecompilationMenuItem);
+
+        var raceDecompilersMenuItem = new JCheckBoxMenuItem("Race Procyon and CFR, show the first result",
+                settings.isRaceDecompilers());
+        raceDecompilersMenuItem.addActionListener(e ->
+                toggleRaceDecompilers(raceDecompilersMenuItem.isSelected()));
+        settingsMenu.add(raceDecompilersMenuItem);
+
+        var prefetchMenuItem = new JMenuItem("Prefetch referenced classes...");
+        prefetchMenuItem.addActionListener(e -> showPrefetchDialog());
+        settingsMenu.add(prefetchMenuItem);
+
+        var preloadBudgetMenuItem = new JMenuItem("Preload memory budget...");
+        preloadBudgetMenuItem.addActionListener(e -> showPreloadBudgetDialog());
+        settingsMenu.add(preloadBudgetMenuItem);
+
+        var diskSourceCacheMenuItem = new JCheckBoxMenuItem("Keep decompiled sources between sessions",
+                settings.isDiskSourceCache());
+        diskSourceCacheMenuItem.addActionListener(e ->
+                toggleDiskSourceCache(diskSourceCacheMenuItem.isSelected()));
+        settingsMenu.add(diskSourceCacheMenuItem);
+
+        var targetReleaseMenuItem = new JMenuItem("Multi-release target version...");
+        targetReleaseMenuItem.addActionListener(e -> showTargetReleaseDialog());
+        settingsMenu.add(targetReleaseMenuItem);
+
+        settingsMenu.addSeparator();
+
         discordRpcMenuItem = new JCheckBoxMenuItem("Discord Rich Presence",
                 settings.isDiscordRichPresence());
         discordRpcMenuItem.addActionListener(e ->
@@ -592,6 +1326,18 @@ worker.execute();
         settingsMenu.add(discordRpcMenuItem);
 
         var helpMenu = new JMenu("Help");
+        helpMenu.add(new AbstractAction("Workspace conflicts") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showWorkspaceConflicts();
+            }
+        });
+        helpMenu.add(new AbstractAction("Cache statistics") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showCacheStatistics();
+            }
+        });
         helpMenu.add(new AbstractAction("Credits") {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -896,11 +1642,11 @@ worker.execute();
             if (finalCb.isSelected()) access |= org.objectweb.asm.Opcodes.ACC_FINAL;
 
             try {
-                byte[] originalBytes = index.getClassBytes(currentClass);
+                byte[] originalBytes = classPath.getClassBytes(currentClass);
                 byte[] modifiedBytes = BytecodeModifier.addField(originalBytes, currentClass, fieldName, fieldDescriptor, access);
-                index.putClassBytes(currentClass, modifiedBytes);
+                classPath.putClassBytes(currentClass, modifiedBytes);
                 statusBar.setText("[!] Field '" + fieldName + "' added to " + currentClass + ".");
-                bytecodeArea.setText(Disassembler.disassemble(index, currentClass));
+                bytecodeArea.setText(Disassembler.disassemble(classPath, currentClass));
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(frame, "[!] Error adding field: " + ex.getMessage(), "Add Field Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -976,11 +1722,11 @@ worker.execute();
             if (abstractCb.isSelected()) newAccess |= org.objectweb.asm.Opcodes.ACC_ABSTRACT;
 
             try {
-                byte[] originalBytes = index.getClassBytes(currentClass);
+                byte[] originalBytes = classPath.getClassBytes(currentClass);
                 byte[] modifiedBytes = BytecodeModifier.changeMethodAccess(originalBytes, currentClass, methodName, methodDescriptor, newAccess);
-                index.putClassBytes(currentClass, modifiedBytes);
+                classPath.putClassBytes(currentClass, modifiedBytes);
                 statusBar.setText("[!] Access for method '" + methodName + methodDescriptor + "' in " + currentClass + " changed.");
-                bytecodeArea.setText(Disassembler.disassemble(index, currentClass));
+                bytecodeArea.setText(Disassembler.disassemble(classPath, currentClass));
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(frame, "[!] Error changing method access: " + ex.getMessage(), "Change Method Access Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -1026,11 +1772,11 @@ worker.execute();
             }
 
             try {
-                byte[] originalBytes = index.getClassBytes(currentClass);
+                byte[] originalBytes = classPath.getClassBytes(currentClass);
                 byte[] modifiedBytes = BytecodeModifier.replaceStringLiteral(originalBytes, currentClass, methodName, methodDescriptor, oldString, newString);
-                index.putClassBytes(currentClass, modifiedBytes);
+                classPath.putClassBytes(currentClass, modifiedBytes);
                 statusBar.setText("[!] String literal in method '" + methodName + methodDescriptor + "' in " + currentClass + " replaced.");
-                bytecodeArea.setText(Disassembler.disassemble(index, currentClass));
+                bytecodeArea.setText(Disassembler.disassemble(classPath, currentClass));
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(frame, "[!] Error replacing string literal: " + ex.getMessage(), "Replace String Literal Error", JOptionPane.ERROR_MESSAGE);
             }